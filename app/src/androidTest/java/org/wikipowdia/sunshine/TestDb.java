@@ -1,11 +1,15 @@
 package org.wikipowdia.sunshine;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import org.wikipowdia.sunshine.data.WeatherContract;
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
 import org.wikipowdia.sunshine.data.WeatherDbHelper;
@@ -61,6 +65,9 @@ public class TestDb extends AndroidTestCase {
 
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = createWeatherValues(locationRowId);
+        // The table stores the date as the day number the provider converts it to.
+        weatherValues.remove(WeatherEntry.COLUMN_DATETEXT);
+        weatherValues.put(WeatherEntry.COLUMN_DAY, WeatherContract.getDayFromDbDate(TEST_DATE));
 
         long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
         assertTrue(weatherRowId != -1);
@@ -81,6 +88,101 @@ public class TestDb extends AndroidTestCase {
         dbHelper.close();
     }
 
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        Cursor cursor = dbHelper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    public void testUpgradeFromVersion1() {
+        createVersion1Db();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        // The locations and forecasts stored by version 1 are kept.
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        validateCursor(cursor, createNorthPoleLocationValues());
+
+        ContentValues weatherValues = createWeatherValues(1);
+        weatherValues.remove(WeatherEntry.COLUMN_DATETEXT);
+        weatherValues.put(WeatherEntry.COLUMN_DAY, WeatherContract.getDayFromDbDate(TEST_DATE));
+        cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        validateCursor(cursor, weatherValues);
+
+        dbHelper.close();
+    }
+
+    public void testUpgradeMatchesCreate() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        String createdSchema = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+
+        createVersion1Db();
+        dbHelper = new WeatherDbHelper(mContext);
+        String upgradedSchema = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+
+        assertEquals(createdSchema, upgradedSchema);
+    }
+
+    // Creates the database as version 1 of the app did, with one location and one forecast.
+    void createVersion1Db() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(
+                WeatherDbHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, coord_long REAL NOT NULL, " +
+                "UNIQUE (location_setting) ON CONFLICT IGNORE );");
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, date TEXT NOT NULL, short_desc TEXT NOT NULL, " +
+                "weather_id INTEGER NOT NULL,min REAL NOT NULL, max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL,  FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                " UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+
+        long locationRowId = db.insert("location", null, createNorthPoleLocationValues());
+        assertEquals(1, locationRowId);
+        assertTrue(db.insert("weather", null, createWeatherValues(locationRowId)) != -1);
+
+        db.setVersion(1);
+        db.close();
+    }
+
+    // Lists the columns and indexes of the tables, to compare two databases.
+    static String describeSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        for (String table : new String[]{LocationEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+                HourlyEntry.TABLE_NAME}) {
+            appendRows(schema, db.rawQuery("PRAGMA table_info(" + table + ")", null));
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexes.moveToNext()) {
+                String index = indexes.getString(indexes.getColumnIndex("name"));
+                schema.append(indexes.getInt(indexes.getColumnIndex("unique"))).append('\n');
+                appendRows(schema, db.rawQuery("PRAGMA index_info(" + index + ")", null));
+            }
+            indexes.close();
+        }
+        return schema.toString();
+    }
+
+    static void appendRows(StringBuilder builder, Cursor cursor) {
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                builder.append(cursor.getString(i)).append('|');
+            }
+            builder.append('\n');
+        }
+        cursor.close();
+    }
+
     static ContentValues createWeatherValues(long locationRowId) {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
@@ -0,0 +1,276 @@
+package org.wikipowdia.sunshine;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import org.wikipowdia.sunshine.data.WeatherContract;
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+import org.wikipowdia.sunshine.snyc.ForecastBatch;
+import org.wikipowdia.sunshine.snyc.ForecastIngestion;
+import org.wikipowdia.sunshine.snyc.ForecastValidators;
+import org.wikipowdia.sunshine.snyc.SunshineSyncAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestForecastIngestion extends AndroidTestCase {
+
+    static final String LOCATION = "94043";
+    static final String OTHER_LOCATION = "10001";
+
+    static final String E_TAG = "\"v1\"";
+    static final String LAST_MODIFIED = "Wed, 23 Jul 2014 02:00:00 GMT";
+
+    private ForecastValidators mValidators;
+
+    public void setUp() {
+        mValidators = new ForecastValidators(mContext);
+        mValidators.save(LOCATION, null, null);
+        mValidators.save(OTHER_LOCATION, null, null);
+    }
+
+    /**
+     * Answers every request with the same response, and records the request's headers.
+     */
+    static class FakeConnection extends HttpURLConnection {
+        final int mResponseCode;
+        final String mETag;
+        final String mLastModified;
+        final Map<String, String> mRequestProperties = new HashMap<String, String>();
+
+        FakeConnection(URL url, int responseCode, String eTag, String lastModified) {
+            super(url);
+            mResponseCode = responseCode;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        @Override
+        public void setRequestProperty(String field, String newValue) {
+            super.setRequestProperty(field, newValue);
+            mRequestProperties.put(field, newValue);
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteArrayInputStream(
+                    TestForecastJsonParser.TEST_FORECAST_JSON.getBytes("UTF-8"));
+        }
+
+        @Override
+        public String getHeaderField(String key) {
+            if ("ETag".equals(key)) {
+                return mETag;
+            }
+            if ("Last-Modified".equals(key)) {
+                return mLastModified;
+            }
+            return null;
+        }
+    }
+
+    static class FakeHttpFetcher extends ForecastIngestion.HttpFetcher {
+        int responseCode = HttpURLConnection.HTTP_OK;
+        FakeConnection lastConnection;
+
+        FakeHttpFetcher(ForecastValidators validators) {
+            super(validators);
+        }
+
+        @Override
+        protected HttpURLConnection openConnection(URL url) {
+            lastConnection = new FakeConnection(url, responseCode, E_TAG, LAST_MODIFIED);
+            return lastConnection;
+        }
+    }
+
+    /**
+     * Serves a canned response for every location, except those it is told are unchanged,
+     * and records the fetches.
+     */
+    static class FakeFetcher implements ForecastIngestion.Fetcher {
+        final String mJson;
+        final List<String> mUnchanged;
+        final List<String> mFetched = Collections.synchronizedList(new ArrayList<String>());
+        final Map<String, Boolean> mConditional =
+                Collections.synchronizedMap(new HashMap<String, Boolean>());
+
+        FakeFetcher(String json, String... unchanged) {
+            mJson = json;
+            mUnchanged = Arrays.asList(unchanged);
+        }
+
+        @Override
+        public ForecastIngestion.Source fetch(String locationSetting, boolean conditional) {
+            mFetched.add(locationSetting);
+            mConditional.put(locationSetting, conditional);
+            if (conditional && mUnchanged.contains(locationSetting)) {
+                return null;
+            }
+            final Reader reader = new StringReader(mJson);
+            return new ForecastIngestion.Source() {
+                @Override
+                public Reader getReader() {
+                    return reader;
+                }
+
+                @Override
+                public void onWritten() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    static class RecordingWriter implements ForecastIngestion.Writer {
+        final List<ForecastBatch> mWritten = new ArrayList<ForecastBatch>();
+
+        @Override
+        public void write(List<ForecastBatch> batches) {
+            mWritten.addAll(batches);
+        }
+    }
+
+    public void testValidatorsRoundTrip() throws IOException {
+        FakeHttpFetcher fetcher = new FakeHttpFetcher(mValidators);
+
+        // Nothing to validate against yet.
+        ForecastIngestion.Source source = fetcher.fetch(LOCATION, true);
+        assertNotNull(source);
+        source.close();
+        assertTrue(fetcher.lastConnection.mRequestProperties.isEmpty());
+
+        // The validators are only kept once the forecast is written.
+        assertNull(mValidators.getETag(LOCATION));
+        source.onWritten();
+        assertEquals(E_TAG, mValidators.getETag(LOCATION));
+        assertEquals(LAST_MODIFIED, mValidators.getLastModified(LOCATION));
+
+        // They are sent back by the next conditional fetch, and a 304 leaves nothing to read.
+        fetcher.responseCode = HttpURLConnection.HTTP_NOT_MODIFIED;
+        assertNull(fetcher.fetch(LOCATION, true));
+        assertEquals(E_TAG, fetcher.lastConnection.mRequestProperties.get("If-None-Match"));
+        assertEquals(LAST_MODIFIED,
+                fetcher.lastConnection.mRequestProperties.get("If-Modified-Since"));
+
+        // An unconditional fetch doesn't send them.
+        fetcher.responseCode = HttpURLConnection.HTTP_OK;
+        source = fetcher.fetch(LOCATION, false);
+        assertNotNull(source);
+        source.close();
+        assertTrue(fetcher.lastConnection.mRequestProperties.isEmpty());
+    }
+
+    public void testNotModifiedIsNotWritten() {
+        FakeHttpFetcher fetcher = new FakeHttpFetcher(mValidators);
+        RecordingWriter writer = new RecordingWriter();
+        ForecastIngestion ingestion = new ForecastIngestion(fetcher,
+                new ForecastIngestion.StreamingParser(), writer);
+        List<String> locations = Collections.singletonList(LOCATION);
+
+        List<ForecastBatch> batches = ingestion.ingestAll(locations, locations, new SyncResult());
+        assertEquals(1, batches.size());
+        assertEquals(1, writer.mWritten.size());
+        assertEquals(E_TAG, mValidators.getETag(LOCATION));
+
+        fetcher.responseCode = HttpURLConnection.HTTP_NOT_MODIFIED;
+        SyncResult syncResult = new SyncResult();
+        batches = ingestion.ingestAll(locations, locations, syncResult);
+        assertTrue(batches.isEmpty());
+        assertEquals(1, writer.mWritten.size());
+        assertFalse(syncResult.hasError());
+    }
+
+    public void testHourlyOnlyFetchedWhenDailyChanged() {
+        FakeFetcher fetcher = new FakeFetcher(
+                TestForecastJsonParser.TEST_FORECAST_JSON, OTHER_LOCATION);
+        FakeFetcher hourlyFetcher = new FakeFetcher(
+                TestForecastJsonParser.TEST_HOURLY_FORECAST_JSON);
+        RecordingWriter writer = new RecordingWriter();
+        ForecastIngestion ingestion = new ForecastIngestion(fetcher, hourlyFetcher,
+                new ForecastIngestion.StreamingParser(), writer);
+        List<String> locations = Arrays.asList(LOCATION, OTHER_LOCATION);
+
+        List<ForecastBatch> batches = ingestion.ingestAll(locations, locations, new SyncResult());
+
+        assertEquals(2, fetcher.mFetched.size());
+        assertEquals(Collections.singletonList(LOCATION), hourlyFetcher.mFetched);
+        assertEquals(1, batches.size());
+        assertEquals(LOCATION, batches.get(0).getLocationSetting());
+        assertEquals(2, batches.get(0).getHourlyBatch().size());
+    }
+
+    public void testUnconditionalWhenNothingStored() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        List<String> locations = Collections.singletonList(
+                TestProvider.KALAMAZOO_LOCATION_SETTING);
+
+        FakeFetcher fetcher = new FakeFetcher(TestForecastJsonParser.TEST_FORECAST_JSON,
+                TestProvider.KALAMAZOO_LOCATION_SETTING);
+        ForecastIngestion ingestion = new ForecastIngestion(fetcher,
+                new ForecastIngestion.StreamingParser(), new RecordingWriter());
+        List<String> conditionalLocations =
+                SunshineSyncAdapter.getConditionalLocations(mContext, locations);
+        assertTrue(conditionalLocations.isEmpty());
+
+        // The fetch isn't allowed to be skipped, even though the forecast didn't change.
+        List<ForecastBatch> batches =
+                ingestion.ingestAll(locations, conditionalLocations, new SyncResult());
+        assertEquals(Boolean.FALSE,
+                fetcher.mConditional.get(TestProvider.KALAMAZOO_LOCATION_SETTING));
+        assertEquals(1, batches.size());
+
+        // Once today's forecast is stored, it may.
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestProvider.createKalamazooLocationValues());
+        ContentValues todayValues =
+                TestProvider.createKalamazooWeatherValues(ContentUris.parseId(locationUri));
+        todayValues.put(WeatherEntry.COLUMN_DATETEXT,
+                WeatherContract.getDbDateString(new Date()));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, todayValues);
+
+        assertEquals(locations,
+                SunshineSyncAdapter.getConditionalLocations(mContext, locations));
+    }
+}
@@ -0,0 +1,147 @@
+package org.wikipowdia.sunshine;
+
+import android.test.AndroidTestCase;
+
+import org.wikipowdia.sunshine.snyc.ForecastJsonParser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    // A trimmed down daily forecast, with the list ahead of the city and a few fields the
+    // parser doesn't care about.
+    static final String TEST_FORECAST_JSON = "{" +
+            "\"cod\":\"200\",\"message\":0.0032,\"cnt\":2," +
+            "\"list\":[" +
+            "{\"dt\":1406080800,\"temp\":{\"day\":20.5,\"min\":15.3,\"max\":22.1," +
+            "\"night\":15.3,\"eve\":18.2,\"morn\":20.5},\"pressure\":1012.12," +
+            "\"humidity\":76,\"weather\":[{\"id\":800,\"main\":\"Clear\"," +
+            "\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":4.6,\"deg\":250}," +
+            "{\"dt\":1406167200,\"temp\":{\"day\":18.1,\"min\":12.8,\"max\":19.6}," +
+            "\"pressure\":1009.44,\"humidity\":81,\"weather\":[{\"id\":500,\"main\":\"Rain\"}," +
+            "{\"id\":701,\"main\":\"Mist\"}],\"speed\":2.1,\"deg\":190,\"rain\":3}" +
+            "]," +
+            "\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\"}" +
+            "}";
+
+    // A trimmed down 3-hourly forecast.
+    static final String TEST_HOURLY_FORECAST_JSON = "{" +
+            "\"cod\":\"200\",\"message\":0.0113," +
+            "\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\"}," +
+            "\"cnt\":2," +
+            "\"list\":[" +
+            "{\"dt\":1406106000,\"main\":{\"temp\":18.77,\"temp_min\":18.77," +
+            "\"temp_max\":18.77,\"pressure\":1005.93,\"humidity\":87}," +
+            "\"weather\":[{\"id\":804,\"main\":\"Clouds\"," +
+            "\"description\":\"overcast clouds\",\"icon\":\"04d\"}]," +
+            "\"clouds\":{\"all\":88},\"wind\":{\"speed\":5.71,\"deg\":229.501}," +
+            "\"dt_txt\":\"2014-07-23 09:00:00\"}," +
+            "{\"dt\":1406116800,\"main\":{\"temp\":20.12,\"pressure\":1006.1," +
+            "\"humidity\":80},\"weather\":[{\"id\":500,\"main\":\"Rain\"}]," +
+            "\"wind\":{\"speed\":4.2,\"deg\":210}}" +
+            "]}";
+
+    static class RecordingCallback implements ForecastJsonParser.Callback {
+        String cityName;
+        double lat;
+        double lon;
+        final List<String> descriptions = new ArrayList<String>();
+        final List<Integer> weatherIds = new ArrayList<Integer>();
+        final List<Double> highs = new ArrayList<Double>();
+        final List<Long> dateTimes = new ArrayList<Long>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int index, ForecastJsonParser.Day day) {
+            assertEquals(dateTimes.size(), index);
+            dateTimes.add(day.dateTime);
+            descriptions.add(day.description);
+            weatherIds.add(day.weatherId);
+            highs.add(day.high);
+        }
+    }
+
+    public void testParseForecast() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+        ForecastJsonParser.parse(new StringReader(TEST_FORECAST_JSON), callback);
+
+        assertEquals("Mountain View", callback.cityName);
+        // The coordinates must not be truncated to whole degrees.
+        assertEquals(37.386051, callback.lat, 1e-9);
+        assertEquals(-122.083847, callback.lon, 1e-9);
+
+        assertEquals(2, callback.dateTimes.size());
+        assertEquals(1406080800L, (long) callback.dateTimes.get(0));
+        assertEquals("Clear", callback.descriptions.get(0));
+        assertEquals(800, (int) callback.weatherIds.get(0));
+        assertEquals(22.1, callback.highs.get(0), 1e-9);
+
+        // Only the first element of the "weather" array is used.
+        assertEquals("Rain", callback.descriptions.get(1));
+        assertEquals(500, (int) callback.weatherIds.get(1));
+    }
+
+    static class RecordingHourlyCallback implements ForecastJsonParser.HourlyCallback {
+        String cityName;
+        final List<Long> dateTimes = new ArrayList<Long>();
+        final List<Double> temperatures = new ArrayList<Double>();
+        final List<Double> windSpeeds = new ArrayList<Double>();
+        final List<Integer> weatherIds = new ArrayList<Integer>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+        }
+
+        @Override
+        public void onHour(int index, ForecastJsonParser.Hour hour) {
+            assertEquals(dateTimes.size(), index);
+            dateTimes.add(hour.dateTime);
+            temperatures.add(hour.temperature);
+            windSpeeds.add(hour.windSpeed);
+            weatherIds.add(hour.weatherId);
+        }
+    }
+
+    public void testParseHourlyForecast() throws IOException {
+        RecordingHourlyCallback callback = new RecordingHourlyCallback();
+        ForecastJsonParser.parseHourly(new StringReader(TEST_HOURLY_FORECAST_JSON), callback);
+
+        assertEquals("Mountain View", callback.cityName);
+        assertEquals(2, callback.dateTimes.size());
+        assertEquals(1406106000L, (long) callback.dateTimes.get(0));
+        assertEquals(18.77, callback.temperatures.get(0), 1e-9);
+        assertEquals(5.71, callback.windSpeeds.get(0), 1e-9);
+        assertEquals(804, (int) callback.weatherIds.get(0));
+        assertEquals(500, (int) callback.weatherIds.get(1));
+    }
+
+    public void testParseErrorResponse() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+        ForecastJsonParser.parse(new StringReader(
+                "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"), callback);
+
+        assertNull(callback.cityName);
+        assertEquals(0, callback.dateTimes.size());
+    }
+
+    public void testParseMalformed() {
+        try {
+            ForecastJsonParser.parse(new StringReader("{\"list\":{}}"),
+                    new RecordingCallback());
+            fail("Expected an IOException for a malformed forecast");
+        } catch (IOException expected) {
+        }
+    }
+}
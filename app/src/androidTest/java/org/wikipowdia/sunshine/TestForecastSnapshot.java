@@ -0,0 +1,56 @@
+package org.wikipowdia.sunshine;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import org.wikipowdia.sunshine.data.ForecastSnapshot;
+import org.wikipowdia.sunshine.data.WeatherBatch;
+import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+
+    static final String[] TEST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATETEXT,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_HUMIDITY
+    };
+
+    public void testWriteRead() {
+        WeatherBatch batch = new WeatherBatch(3);
+        batch.add(1, 16409, "Clear", 800, 15.3, 22.1, 76, 1012.12, 4.6, 250);
+        batch.add(1, 16410, "Rain", 500, 12.8, 19.6, 81, 1009.44, 2.1, 190);
+        batch.add(1, 16411, "Clouds", 804, 11.2, 17.9, 70, 1010.3, 3.2, 210);
+        ForecastSnapshot.write(mContext, TEST_LOCATION, batch);
+
+        Cursor cursor = ForecastSnapshot.read(mContext, TEST_LOCATION, 16410, TEST_COLUMNS);
+        assertNotNull(cursor);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(0, cursor.getLong(0));
+            assertEquals("20141206", cursor.getString(1));
+            assertEquals("Rain", cursor.getString(2));
+            assertEquals(19.6, cursor.getDouble(3));
+            assertEquals(12.8, cursor.getDouble(4));
+            assertEquals(TEST_LOCATION, cursor.getString(5));
+            assertEquals(500, cursor.getInt(6));
+            // The snapshot only holds what the forecast list shows.
+            assertTrue(cursor.isNull(7));
+            assertTrue(cursor.moveToNext());
+            assertEquals(1, cursor.getLong(0));
+            assertEquals("Clouds", cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+
+        assertNull(ForecastSnapshot.read(mContext, "94043", 16410, TEST_COLUMNS));
+    }
+}
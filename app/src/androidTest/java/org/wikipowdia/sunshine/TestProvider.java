@@ -1,16 +1,35 @@
 package org.wikipowdia.sunshine;
 
 import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import org.wikipowdia.sunshine.data.HourlyBatch;
+import org.wikipowdia.sunshine.data.LocationForecasts;
+import org.wikipowdia.sunshine.data.WeatherBatch;
+import org.wikipowdia.sunshine.data.WeatherContract;
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+import org.wikipowdia.sunshine.data.WeatherRetention;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestProvider extends AndroidTestCase {
 
@@ -23,6 +42,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -211,6 +235,362 @@ public class TestProvider extends AndroidTestCase {
         TestDb.validateCursor(cursor, updatedValues);
     }
 
+    public void testBulkInsertKeepsUnchangedRows() {
+        insertKalamazooData();
+
+        ContentValues secondDay = createKalamazooWeatherValues(locationRowId);
+        secondDay.put(WeatherEntry.COLUMN_DATETEXT, "20140626");
+
+        int count = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{createKalamazooWeatherValues(locationRowId), secondDay});
+        assertEquals(2, count);
+        long firstDayId = getWeatherId(KALAMAZOO_WEATHER_START_DATE);
+        long secondDayId = getWeatherId("20140626");
+
+        // Sync the same forecast again, with one changed day.
+        ContentValues changedDay = new ContentValues(secondDay);
+        changedDay.put(WeatherEntry.COLUMN_SHORT_DESC, "Frogs");
+        count = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{createKalamazooWeatherValues(locationRowId), changedDay});
+        assertEquals(2, count);
+
+        // Neither row was replaced, the changed one was updated in place.
+        assertEquals(firstDayId, getWeatherId(KALAMAZOO_WEATHER_START_DATE));
+        assertEquals(secondDayId, getWeatherId("20140626"));
+
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(KALAMAZOO_LOCATION_SETTING, "20140626"),
+                null,
+                null,
+                null,
+                null
+        );
+        TestDb.validateCursor(weatherCursor, changedDay);
+    }
+
+    public void testWeatherBatchBulkInsert() {
+        insertKalamazooData();
+
+        WeatherBatch batch = new WeatherBatch(2);
+        batch.add(locationRowId, WeatherContract.getDayFromDbDate(KALAMAZOO_WEATHER_START_DATE),
+                "Asteroids", 321, 65, 75, 1.2, 1.3, 5.5, 1.1);
+        batch.add(locationRowId, WeatherContract.getDayFromDbDate("20140626"),
+                "Frogs", 321, 60, 70, 1.2, 1.3, 5.5, 1.1);
+
+        int count = batch.bulkInsert(mContext.getContentResolver());
+        assertEquals(2, count);
+
+        ContentValues[] values = batch.toContentValues();
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(KALAMAZOO_LOCATION_SETTING, "20140626"),
+                null,
+                null,
+                null,
+                null
+        );
+        TestDb.validateCursor(weatherCursor, values[1]);
+    }
+
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(createKalamazooLocationValues())
+                .build());
+        ContentValues weatherValues = createKalamazooWeatherValues(0);
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(weatherValues)
+                .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                .build());
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(2, results.length);
+        long locationId = ContentUris.parseId(results[0].uri);
+        long weatherId = ContentUris.parseId(results[1].uri);
+
+        // Applying the same batch again finds the stored location and day.
+        results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(locationId, ContentUris.parseId(results[0].uri));
+        assertEquals(weatherId, ContentUris.parseId(results[1].uri));
+
+        weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(KALAMAZOO_LOCATION_SETTING),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals(1, weatherCursor.getCount());
+        TestDb.validateCursor(weatherCursor, weatherValues);
+    }
+
+    public void testHourlyBatchBulkInsert() {
+        insertKalamazooData();
+
+        // 2014-06-25, 00:00 and 03:00 UTC.
+        long firstHour = 16246 * 24;
+        HourlyBatch batch = new HourlyBatch(2);
+        batch.add(locationRowId, firstHour, "Asteroids", 321, 65, 1.2, 1.3, 5.5, 1.1);
+        batch.add(locationRowId, firstHour + 3, "Frogs", 321, 60, 1.2, 1.3, 5.5, 1.1);
+
+        assertEquals(2, batch.bulkInsert(mContext.getContentResolver()));
+
+        // Storing the same hours again replaces them.
+        assertEquals(2, batch.bulkInsert(mContext.getContentResolver()));
+
+        Cursor hourlyCursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithStartHour(
+                        KALAMAZOO_LOCATION_SETTING, firstHour + 1),
+                null,
+                null,
+                null,
+                HourlyEntry.COLUMN_HOUR + " ASC"
+        );
+        assertEquals(1, hourlyCursor.getCount());
+        TestDb.validateCursor(hourlyCursor, batch.toContentValues()[1]);
+    }
+
+    public void testStoreLocationForecasts() throws Exception {
+        WeatherBatch weather = new WeatherBatch(1);
+        weather.add(0, WeatherContract.getDayFromDbDate(KALAMAZOO_WEATHER_START_DATE),
+                "Asteroids", 321, 65, 75, 1.2, 1.3, 5.5, 1.1);
+        HourlyBatch hourly = new HourlyBatch(1);
+        hourly.add(0, 16246 * 24, "Frogs", 321, 60, 1.2, 1.3, 5.5, 1.1);
+
+        ContentValues location = createKalamazooLocationValues();
+        LocationForecasts forecasts = new LocationForecasts();
+        forecasts.add(KALAMAZOO_LOCATION_SETTING,
+                location.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                location.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                location.getAsDouble(LocationEntry.COLUMN_COORD_LONG),
+                weather, hourly);
+        assertEquals(2, forecasts.store(mContext.getContentResolver()));
+
+        // Storing them again finds the stored location.
+        assertEquals(2, forecasts.store(mContext.getContentResolver()));
+
+        Cursor locationCursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                null,
+                null,
+                null
+        );
+        assertEquals(1, locationCursor.getCount());
+        assertTrue(locationCursor.moveToFirst());
+        long locationId = locationCursor.getLong(0);
+        locationCursor.close();
+
+        weather.setLocationId(locationId);
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(KALAMAZOO_LOCATION_SETTING),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals(1, weatherCursor.getCount());
+        TestDb.validateCursor(weatherCursor, weather.toContentValues()[0]);
+
+        hourly.setLocationId(locationId);
+        Cursor hourlyCursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(KALAMAZOO_LOCATION_SETTING),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals(1, hourlyCursor.getCount());
+        TestDb.validateCursor(hourlyCursor, hourly.toContentValues()[0]);
+    }
+
+    public void testQueryAfterUpdate() {
+        insertKalamazooData();
+        Uri locationUri = WeatherEntry.buildWeatherLocation(KALAMAZOO_LOCATION_SETTING);
+
+        // The second query is served from memory.
+        ContentValues weatherValues = createKalamazooWeatherValues(locationRowId);
+        for (int i = 0; i < 2; i++) {
+            Cursor weatherCursor = mContext.getContentResolver().query(
+                    locationUri, null, null, null, null);
+            TestDb.validateCursor(weatherCursor, weatherValues);
+        }
+
+        // A write through the provider is seen by the next query.
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_SHORT_DESC, "Frogs");
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, update, null, null);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Frogs");
+
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                locationUri, null, null, null, null);
+        TestDb.validateCursor(weatherCursor, weatherValues);
+    }
+
+    public void testInsertKnownLocation() {
+        insertKalamazooData();
+
+        Uri locationUri = mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, createKalamazooLocationValues());
+        assertEquals(locationRowId, ContentUris.parseId(locationUri));
+
+        // The location is looked up again once it has been deleted.
+        deleteAllRecords();
+        insertKalamazooData();
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(KALAMAZOO_LOCATION_SETTING),
+                null,
+                null,
+                null,
+                null
+        );
+        TestDb.validateCursor(weatherCursor, createKalamazooWeatherValues(locationRowId));
+    }
+
+    // The window of WeatherChangeNotifier.
+    static final long NOTIFICATION_WINDOW_MILLIS = 100;
+
+    static class CountingObserver extends ContentObserver {
+        final AtomicInteger mChanges = new AtomicInteger();
+        volatile long mFirstChangeAt;
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            if (mChanges.getAndIncrement() == 0) {
+                mFirstChangeAt = SystemClock.uptimeMillis();
+            }
+        }
+    }
+
+    public void testChangeNotificationsAreCoalesced() throws Exception {
+        insertKalamazooData();
+        // Let the notifications of the setup go out first.
+        Thread.sleep(5 * NOTIFICATION_WINDOW_MILLIS);
+
+        ContentResolver resolver = mContext.getContentResolver();
+        CountingObserver weatherObserver = new CountingObserver();
+        CountingObserver locationObserver = new CountingObserver();
+        resolver.registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        resolver.registerContentObserver(
+                WeatherEntry.buildWeatherLocation(KALAMAZOO_LOCATION_SETTING), true,
+                locationObserver);
+        try {
+            // Hold the main thread, which sends the notifications, so that all the writes
+            // below fall in one window however slow the device is.
+            final CountDownLatch release = new CountDownLatch(1);
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            long start = SystemClock.uptimeMillis();
+            // Each of these notifies weather/kalamazoo...
+            ContentValues secondDay = createKalamazooWeatherValues(locationRowId);
+            secondDay.put(WeatherEntry.COLUMN_DATETEXT, "20140626");
+            resolver.insert(WeatherEntry.CONTENT_URI, secondDay);
+            secondDay.put(WeatherEntry.COLUMN_SHORT_DESC, "Frogs");
+            resolver.insert(WeatherEntry.CONTENT_URI, secondDay);
+            // ...and this notifies weather, which covers it.
+            ContentValues update = new ContentValues();
+            update.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            resolver.update(WeatherEntry.CONTENT_URI, update, null, null);
+            release.countDown();
+
+            Thread.sleep(5 * NOTIFICATION_WINDOW_MILLIS);
+
+            // A single notification of weather, which reaches the observers of both Uris.
+            assertEquals(1, weatherObserver.mChanges.get());
+            assertEquals(1, locationObserver.mChanges.get());
+            assertTrue(weatherObserver.mFirstChangeAt - start >= NOTIFICATION_WINDOW_MILLIS);
+        } finally {
+            resolver.unregisterContentObserver(weatherObserver);
+            resolver.unregisterContentObserver(locationObserver);
+        }
+    }
+
+    public void testPurgeWeather() {
+        insertKalamazooData();
+
+        // Today's weather is kept, the 2014 forecast is not.
+        String today = WeatherContract.getDbDateString(new Date());
+        ContentValues todayValues = createKalamazooWeatherValues(locationRowId);
+        todayValues.put(WeatherEntry.COLUMN_DATETEXT, today);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, todayValues);
+
+        assertEquals(1, WeatherRetention.purge(mContext.getContentResolver(), 7));
+
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals(1, weatherCursor.getCount());
+        TestDb.validateCursor(weatherCursor, todayValues);
+    }
+
+    public void testPurgeHourlyFromLocalMidnight() {
+        insertKalamazooData();
+
+        // A time zone where local midnight isn't a multiple of 24 hours since the epoch.
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        try {
+            int firstDay = WeatherContract.getDay(new Date()) - 7;
+            long firstHour = HourlyEntry.getFirstHourOfDay(firstDay);
+            assertTrue(firstHour != firstDay * 24L);
+
+            // The last hour before the local midnight that starts the kept days goes, the
+            // first one after it stays.
+            HourlyBatch batch = new HourlyBatch(2);
+            batch.add(locationRowId, firstHour - 1, "Asteroids", 321, 65, 1.2, 1.3, 5.5, 1.1);
+            batch.add(locationRowId, firstHour, "Frogs", 321, 60, 1.2, 1.3, 5.5, 1.1);
+            assertEquals(2, batch.bulkInsert(mContext.getContentResolver()));
+
+            WeatherRetention.purge(mContext.getContentResolver(), 7);
+
+            Cursor hourlyCursor = mContext.getContentResolver().query(
+                    HourlyEntry.CONTENT_URI,
+                    null,
+                    null,
+                    null,
+                    null
+            );
+            assertEquals(1, hourlyCursor.getCount());
+            TestDb.validateCursor(hourlyCursor, batch.toContentValues()[1]);
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    long getWeatherId(String date) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_DAY + " = ?",
+                new String[]{Integer.toString(WeatherContract.getDayFromDbDate(date))},
+                null
+        );
+        assertTrue(cursor.moveToFirst());
+        long id = cursor.getLong(0);
+        cursor.close();
+        return id;
+    }
+
     // Make sure we can still delete after adding/updating stuff
     public void testDeleteRecordsAtEnd() {
         deleteAllRecords();
@@ -0,0 +1,102 @@
+package org.wikipowdia.sunshine;
+
+import android.test.AndroidTestCase;
+
+public class TestRotationBuffer extends AndroidTestCase {
+
+    private static final float DELTA = 1e-5f;
+
+    // Samples are rotations about the z axis, a milliradian and a millisecond apart.
+    private static final float STEP = 0.001f;
+    private static final long INTERVAL_NS = 1000L * 1000;
+
+    private static float[] rotationVector(int k) {
+        float angle = k * STEP;
+        return new float[] {0, 0, (float) Math.sin(angle / 2), (float) Math.cos(angle / 2)};
+    }
+
+    private static float angle(float[] rotation) {
+        return 2 * (float) Math.atan2(rotation[2], rotation[3]);
+    }
+
+    private static void assertRotation(int k, float[] rotation) {
+        float[] expected = rotationVector(k);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], rotation[i], DELTA);
+        }
+    }
+
+    public void testNoSampleYet() {
+        RotationBuffer buffer = new RotationBuffer();
+        float[] rotation = new float[4];
+        assertFalse(buffer.getRotation(rotation, System.nanoTime()));
+        assertFalse(buffer.getRotation(rotation, System.nanoTime()));
+    }
+
+    public void testPublishThenConsume() {
+        RotationBuffer buffer = new RotationBuffer();
+        float[] rotation = new float[4];
+        // A frame time before the samples were received, so that nothing is extrapolated.
+        long frameTime = System.nanoTime();
+
+        buffer.write(rotationVector(1), INTERVAL_NS);
+        assertTrue(buffer.getRotation(rotation, frameTime));
+        assertRotation(1, rotation);
+
+        buffer.write(rotationVector(2), 2 * INTERVAL_NS);
+        assertTrue(buffer.getRotation(rotation, frameTime));
+        assertRotation(2, rotation);
+
+        // Without a new sample, the reader keeps the latest one.
+        assertTrue(buffer.getRotation(rotation, frameTime));
+        assertRotation(2, rotation);
+    }
+
+    public void testLatestSampleWins() {
+        RotationBuffer buffer = new RotationBuffer();
+        float[] rotation = new float[4];
+        long frameTime = System.nanoTime();
+
+        // More samples than buffers, none of them read.
+        for (int k = 1; k <= 5; k++) {
+            buffer.write(rotationVector(k), k * INTERVAL_NS);
+        }
+        assertTrue(buffer.getRotation(rotation, frameTime));
+        assertRotation(5, rotation);
+
+        buffer.write(rotationVector(6), 6 * INTERVAL_NS);
+        buffer.write(rotationVector(7), 7 * INTERVAL_NS);
+        assertTrue(buffer.getRotation(rotation, frameTime));
+        assertRotation(7, rotation);
+    }
+
+    public void testConcurrentSamplesNeverGoBack() throws InterruptedException {
+        final RotationBuffer buffer = new RotationBuffer();
+        final int sampleCount = 1000;
+        long frameTime = System.nanoTime();
+
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int k = 1; k <= sampleCount; k++) {
+                    buffer.write(rotationVector(k), k * INTERVAL_NS);
+                }
+            }
+        };
+        writer.start();
+
+        float[] rotation = new float[4];
+        float lastAngle = 0;
+        while (writer.isAlive()) {
+            if (buffer.getRotation(rotation, frameTime)) {
+                float angle = angle(rotation);
+                assertTrue(angle >= lastAngle - DELTA);
+                lastAngle = angle;
+            }
+        }
+        writer.join();
+
+        assertTrue(buffer.getRotation(rotation, frameTime));
+        assertRotation(sampleCount, rotation);
+    }
+}
@@ -0,0 +1,87 @@
+package org.wikipowdia.sunshine;
+
+import android.test.AndroidTestCase;
+
+import org.wikipowdia.sunshine.data.WeatherContract;
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+public class TestWeatherContract extends AndroidTestCase {
+
+    public void testDayFromDbDate() {
+        assertEquals(0, WeatherContract.getDayFromDbDate("19700101"));
+        assertEquals(-1, WeatherContract.getDayFromDbDate("19691231"));
+        assertEquals(11016, WeatherContract.getDayFromDbDate("20000229"));
+        assertEquals(16409, WeatherContract.getDayFromDbDate("20141205"));
+    }
+
+    public void testDbDateFromDay() {
+        assertEquals("19700101", WeatherContract.getDbDateFromDay(0));
+        assertEquals("19691231", WeatherContract.getDbDateFromDay(-1));
+        assertEquals("20000229", WeatherContract.getDbDateFromDay(11016));
+        assertEquals("20141205", WeatherContract.getDbDateFromDay(16409));
+    }
+
+    public void testInvalidDbDate() {
+        String[] invalidDates = {"2014125", "2014-12-05", "20141305", "20141200"};
+        for (String dateText : invalidDates) {
+            try {
+                WeatherContract.getDayFromDbDate(dateText);
+                fail("Accepted " + dateText);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+            assertNull(WeatherContract.getDateFromDb(dateText));
+        }
+    }
+
+    public void testDayAndHourFromMillis() {
+        // 2014-06-25 01:00 UTC, still the evening of June 24 in California.
+        long millis = 16246 * 24 * 60 * 60 * 1000L + 60 * 60 * 1000L;
+        assertEquals(16246, WeatherContract.getDay(millis, TimeZone.getTimeZone("UTC")));
+        assertEquals(16245,
+                WeatherContract.getDay(millis, TimeZone.getTimeZone("America/Los_Angeles")));
+        assertEquals(16246 * 24 + 1, HourlyEntry.getHour(millis));
+        assertEquals(HourlyEntry.getHour(new Date(millis)), HourlyEntry.getHour(millis));
+    }
+
+    // The conversions must agree with the SimpleDateFormat they replace, over a few years
+    // of local dates.
+    public void testMatchesSimpleDateFormat() {
+        SimpleDateFormat sdf = new SimpleDateFormat(WeatherContract.DATE_FORMAT);
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2012, Calendar.JANUARY, 1, 12, 0, 0);
+        for (int i = 0; i < 4 * 366; i++) {
+            Date date = calendar.getTime();
+            String expected = sdf.format(date);
+            assertEquals(expected, WeatherContract.getDbDateString(date));
+            assertEquals(expected, sdf.format(WeatherContract.getDateFromDb(expected)));
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    // The day strings must agree with the SimpleDateFormat patterns they replace.
+    public void testDayFormatterMatchesSimpleDateFormat() {
+        SimpleDateFormat weekdayFormat = new SimpleDateFormat("EEEE");
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        SimpleDateFormat shortDateFormat = new SimpleDateFormat("EEE MMM dd");
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2012, Calendar.JANUARY, 1, 12, 0, 0);
+        int today = WeatherContract.getDay(new Date());
+        for (int i = 0; i < 2 * 366; i++) {
+            Date date = calendar.getTime();
+            int day = WeatherContract.getDay(date);
+            assertEquals(weekdayFormat.format(date), DayFormatter.getWeekdayName(mContext, day));
+            assertEquals(monthDayFormat.format(date), DayFormatter.getMonthDay(mContext, day));
+            if (day >= today + 7) {
+                assertEquals(shortDateFormat.format(date),
+                        DayFormatter.getFriendlyDay(mContext, day));
+            }
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+}
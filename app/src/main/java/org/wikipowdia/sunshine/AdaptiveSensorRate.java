@@ -0,0 +1,133 @@
+package org.wikipowdia.sunshine;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+
+/**
+ * Registers a listener to a rotation vector sensor at a rate that follows the device's
+ * motion: the full rate while the device turns, and a low rate once it has been still for a
+ * while.  While still, events are also batched in the sensor hub's FIFO where the hardware
+ * supports it (KitKat and up), so the application processor can sleep between batches.
+ *
+ * The listener must hand every event to {@link #onSensorChanged(SensorEvent)}.
+ */
+class AdaptiveSensorRate {
+
+    // Sampling period while the device is still.
+    private static final int STILL_PERIOD_US = 200000;
+
+    // Latency allowed to events while the device is still.  Picking up motion again takes up
+    // to this long, on top of a sampling period.
+    private static final int STILL_MAX_REPORT_LATENCY_US = 500000;
+
+    // Rotation speed, in degrees per second, under which the device counts as still...
+    private static final float STILL_DEGREES_PER_SECOND = 2f;
+
+    // ...and for how long it must stay under it before the rate drops.
+    private static final long STILL_DELAY_NS = 2000L * 1000 * 1000;
+
+    private final SensorManager mSensorManager;
+    private final SensorEventListener mListener;
+    private final Sensor mSensor;
+    private final int mMovingPeriodUs;
+    private final Handler mHandler;
+
+    private boolean mStarted;
+    private boolean mStill;
+    private long mMovedAtNs;
+
+    // The previous rotation, as a unit quaternion.
+    private final float[] mPreviousRotation = new float[4];
+    private long mPreviousTimestampNs;
+
+    /**
+     * @param movingPeriodUs the sampling period while the device moves.
+     * @param handler the handler events are delivered on, or null for the main thread.
+     */
+    AdaptiveSensorRate(SensorManager sensorManager, SensorEventListener listener, Sensor sensor,
+                       int movingPeriodUs, Handler handler) {
+        mSensorManager = sensorManager;
+        mListener = listener;
+        mSensor = sensor;
+        mMovingPeriodUs = movingPeriodUs;
+        mHandler = handler;
+    }
+
+    /**
+     * Registers the listener, at the rate for a moving device.
+     */
+    synchronized void start() {
+        mStarted = true;
+        mStill = false;
+        mPreviousTimestampNs = 0;
+        register();
+    }
+
+    synchronized void stop() {
+        mStarted = false;
+        mSensorManager.unregisterListener(mListener);
+    }
+
+    /**
+     * Tracks the rotation speed, and changes the rate when the device starts or stops moving.
+     */
+    synchronized void onSensorChanged(SensorEvent event) {
+        if (!mStarted) {
+            return;
+        }
+        float x = event.values[0];
+        float y = event.values[1];
+        float z = event.values[2];
+        // The scalar part is optional before Jelly Bean MR2.
+        float w = event.values.length > 3 ? event.values[3] :
+                (float) Math.sqrt(Math.max(0, 1 - x * x - y * y - z * z));
+
+        if (mPreviousTimestampNs != 0 && event.timestamp > mPreviousTimestampNs) {
+            float dot = Math.abs(x * mPreviousRotation[0] + y * mPreviousRotation[1] +
+                    z * mPreviousRotation[2] + w * mPreviousRotation[3]);
+            float degrees = (float) Math.toDegrees(2 * Math.acos(Math.min(1, dot)));
+            float seconds = (event.timestamp - mPreviousTimestampNs) / 1e9f;
+
+            if (degrees / seconds >= STILL_DEGREES_PER_SECOND) {
+                mMovedAtNs = event.timestamp;
+                if (mStill) {
+                    mStill = false;
+                    register();
+                }
+            } else if (!mStill && event.timestamp - mMovedAtNs >= STILL_DELAY_NS) {
+                mStill = true;
+                register();
+            }
+        } else {
+            mMovedAtNs = event.timestamp;
+        }
+
+        mPreviousRotation[0] = x;
+        mPreviousRotation[1] = y;
+        mPreviousRotation[2] = z;
+        mPreviousRotation[3] = w;
+        mPreviousTimestampNs = event.timestamp;
+    }
+
+    private void register() {
+        mSensorManager.unregisterListener(mListener);
+        int periodUs = mStill ? STILL_PERIOD_US : mMovingPeriodUs;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            registerBatched(periodUs, mStill ? STILL_MAX_REPORT_LATENCY_US : 0);
+        } else {
+            mSensorManager.registerListener(mListener, mSensor, periodUs, mHandler);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void registerBatched(int periodUs, int maxReportLatencyUs) {
+        // Devices without a FIFO ignore the latency, and report events as they come.
+        mSensorManager.registerListener(mListener, mSensor, periodUs, maxReportLatencyUs,
+                mHandler);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine;
+
+import android.content.Context;
+
+import org.wikipowdia.sunshine.data.WeatherContract;
+
+import java.text.DateFormat;
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats days, given as numbers of days since 1970-01-01, for display.  The forecast list
+ * and the detail view format the same couple of weeks of days over and over, so every string
+ * of a day is built once, from the locale's day and month names, and kept in a small table
+ * indexed by the day.  A call that hits the table doesn't allocate.  Nor does finding out
+ * which day is today, which is computed at most once a minute, so that a change of the default
+ * time zone shows within a minute.
+ *
+ * Safe to call from any thread.  The tables are rebuilt when the default locale changes.
+ */
+public class DayFormatter {
+
+    // Days kept, a power of two.  The list shows about 16 days from today.
+    private static final int DAY_TABLE_SIZE = 32;
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // How long today's day is trusted before the default time zone is looked up again.
+    // TimeZone.getDefault() returns a new copy of the zone on every call.
+    private static final long TODAY_CHECK_MILLIS = 60 * 1000;
+
+    /**
+     * The strings of a day.  Immutable, so they can be shared between threads without locking.
+     */
+    private static class Day {
+        final int mDay;
+        // e.g. "Wednesday"
+        final String mDayName;
+        // e.g. "June 24"
+        final String mMonthDay;
+        // e.g. "Wed Jun 24"
+        final String mShortDate;
+        // e.g. "Today, June 24"
+        final String mToday;
+        // e.g. "Jun 24, 2014"
+        final String mMediumDate;
+
+        Day(Tables tables, int day) {
+            int date = WeatherContract.getYearMonthDay(day);
+            int month = date / 100 % 100 - 1;
+            int dayOfMonth = date % 100;
+            // Calendar.SUNDAY is 1, and 1970-01-01 was a Thursday.
+            int dayOfWeek = ((day + 4) % 7 + 7) % 7 + Calendar.SUNDAY;
+            String twoDigitDay =
+                    dayOfMonth < 10 ? "0" + dayOfMonth : Integer.toString(dayOfMonth);
+
+            mDay = day;
+            mDayName = tables.mWeekdays[dayOfWeek];
+            mMonthDay = tables.mMonths[month] + " " + twoDigitDay;
+            mShortDate = tables.mShortWeekdays[dayOfWeek] + " " + tables.mShortMonths[month] +
+                    " " + twoDigitDay;
+            mToday = String.format(tables.mFullFriendlyFormat, tables.mTodayText, mMonthDay);
+            DateFormat mediumFormat =
+                    DateFormat.getDateInstance(DateFormat.MEDIUM, tables.mLocale);
+            mediumFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            mMediumDate = mediumFormat.format(new Date(day * DAY_IN_MILLIS));
+        }
+    }
+
+    /**
+     * The names of a locale, and the days formatted with them so far.
+     */
+    private static class Tables {
+        final Locale mLocale;
+        final String[] mWeekdays;
+        final String[] mShortWeekdays;
+        final String[] mMonths;
+        final String[] mShortMonths;
+        final String mTodayText;
+        final String mTomorrowText;
+        final String mFullFriendlyFormat;
+        // Indexed by day modulo DAY_TABLE_SIZE.  Slots are replaced, never modified.
+        final Day[] mDays = new Day[DAY_TABLE_SIZE];
+
+        Tables(Context context, Locale locale) {
+            DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+            mLocale = locale;
+            mWeekdays = symbols.getWeekdays();
+            mShortWeekdays = symbols.getShortWeekdays();
+            mMonths = symbols.getMonths();
+            mShortMonths = symbols.getShortMonths();
+            mTodayText = context.getString(R.string.today);
+            mTomorrowText = context.getString(R.string.tomorrow);
+            mFullFriendlyFormat = context.getString(R.string.format_full_friendly_date);
+        }
+
+        Day get(int day) {
+            int slot = day & (DAY_TABLE_SIZE - 1);
+            Day entry = mDays[slot];
+            if (entry == null || entry.mDay != day) {
+                // Racing threads may both build the day, to the same result.
+                entry = new Day(this, day);
+                mDays[slot] = entry;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Today's day number, and the System.currentTimeMillis() span it holds for.  Immutable, like
+     * {@link Day}.
+     */
+    private static class Today {
+        final int mDay;
+        final long mFrom;
+        final long mUntil;
+
+        Today(long now) {
+            mDay = WeatherContract.getDay(now);
+            mFrom = now;
+            mUntil = Math.min(WeatherContract.getDateFromDay(mDay + 1).getTime(),
+                    now + TODAY_CHECK_MILLIS);
+        }
+    }
+
+    private static volatile Tables sTables;
+    private static volatile Today sToday;
+
+    private static int getToday() {
+        long now = System.currentTimeMillis();
+        Today today = sToday;
+        if (today == null || now < today.mFrom || now >= today.mUntil) {
+            today = new Today(now);
+            sToday = today;
+        }
+        return today.mDay;
+    }
+
+    private static Tables getTables(Context context) {
+        Tables tables = sTables;
+        Locale locale = Locale.getDefault();
+        if (tables == null || !tables.mLocale.equals(locale)) {
+            tables = new Tables(context.getApplicationContext(), locale);
+            sTables = tables;
+        }
+        return tables;
+    }
+
+    private static Day getDay(Context context, int day) {
+        return getTables(context).get(day);
+    }
+
+    /**
+     * @return the localized name of the day of week, e.g. "Wednesday".
+     */
+    public static String getWeekdayName(Context context, int day) {
+        return getDay(context, day).mDayName;
+    }
+
+    /**
+     * @return "Today", "Tomorrow", or the name of the day of week, e.g. "Wednesday".
+     */
+    public static String getDayName(Context context, int day) {
+        int today = getToday();
+        if (day == today) {
+            return getTables(context).mTodayText;
+        } else if (day == today + 1) {
+            return getTables(context).mTomorrowText;
+        }
+        return getWeekdayName(context, day);
+    }
+
+    /**
+     * @return the month and day of month, e.g. "June 24".
+     */
+    public static String getMonthDay(Context context, int day) {
+        return getDay(context, day).mMonthDay;
+    }
+
+    /**
+     * @return the localized medium form of the date, e.g. "Jun 24, 2014".
+     */
+    public static String getMediumDate(Context context, int day) {
+        return getDay(context, day).mMediumDate;
+    }
+
+    /**
+     * @return "Today, June 24" for today, {@link #getDayName} for the other days until a
+     * week from today, and e.g. "Mon Jun 30" for the days after that.
+     */
+    public static String getFriendlyDay(Context context, int day) {
+        int today = getToday();
+        if (day == today) {
+            return getDay(context, day).mToday;
+        } else if (day < today + 7) {
+            return getDayName(context, day);
+        }
+        return getDay(context, day).mShortDate;
+    }
+}
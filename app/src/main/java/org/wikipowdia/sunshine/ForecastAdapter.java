@@ -24,6 +24,12 @@ public class ForecastAdapter extends CursorAdapter {
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
+    // The formatted rows of the cursor, by position.
+    private ForecastRows mRows;
+
+    // Rows inflated ahead of time, if any.
+    private ForecastViewPool mViewPool;
+
     /**
      * Cache of the children views for a forecast list item.
      */
@@ -33,6 +39,8 @@ public class ForecastAdapter extends CursorAdapter {
         public final TextView descriptionView;
         public final TextView highTempView;
         public final TextView lowTempView;
+        // The stamp of the row last bound to the views, see ForecastRows.getStamp.
+        long boundStamp;
 
         public ViewHolder(View view) {
             iconView = (ImageView) view.findViewById(R.id.list_item_icon);
@@ -63,6 +71,13 @@ public class ForecastAdapter extends CursorAdapter {
             }
         }
 
+        if (mViewPool != null) {
+            View view = mViewPool.take(viewType == VIEW_TYPE_TODAY);
+            if (view != null) {
+                return view;
+            }
+        }
+
         View view = LayoutInflater.from(context).inflate(layoutId, parent, false);
 
         ViewHolder viewHolder = new ViewHolder(view);
@@ -71,47 +86,74 @@ public class ForecastAdapter extends CursorAdapter {
         return view;
     }
 
+    /**
+     * Sets the pool new rows are taken from before inflating them.
+     */
+    public void setViewPool(ForecastViewPool viewPool) {
+        mViewPool = viewPool;
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor instanceof ForecastRows.RowsCursor) {
+            mRows = ((ForecastRows.RowsCursor) newCursor).mRows;
+        } else {
+            // Cursors that don't come from ForecastLoader, such as the cold start snapshot,
+            // are a couple of weeks of rows at most.
+            mRows = newCursor != null ? ForecastRows.build(mContext, newCursor) : null;
+        }
+        return super.swapCursor(newCursor);
+    }
+
+    /**
+     * @return whether the list is formatted for the current units, locale and day.  Always
+     * true while there is no cursor.
+     */
+    public boolean isCurrent(Context context) {
+        return mRows == null || mRows.isCurrent(context);
+    }
+
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
 
         ViewHolder viewHolder = (ViewHolder) view.getTag();
 
-        int viewType = getItemViewType(cursor.getPosition());
+        // Everything shown was formatted along with the cursor, so a bind only sets views.
+        int position = cursor.getPosition();
+        long stamp = mRows.getStamp(position);
+        if (viewHolder.boundStamp == stamp) {
+            // The views already show this content.  Setting them again would lay them out
+            // again, for nothing.
+            return;
+        }
+        viewHolder.boundStamp = stamp;
+        int viewType = getItemViewType(position);
         switch (viewType) {
             case VIEW_TYPE_TODAY: {
-                // Get weather icon
-                viewHolder.iconView.setImageResource(Utility.getArtResourceForWeatherCondition(
-                        cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID)));
+                WeatherIcons.setImage(viewHolder.iconView, mRows.getArtId(position));
                 break;
             }
             case VIEW_TYPE_FUTURE_DAY: {
-                // Get weather icon
-                viewHolder.iconView.setImageResource(Utility.getIconResourceForWeatherCondition(
-                        cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID)));
+                WeatherIcons.setImage(viewHolder.iconView, mRows.getIconId(position));
                 break;
             }
         }
 
-        // Read date from cursor
-        String dateString = cursor.getString(ForecastFragment.COL_WEATHER_DATE);
-        // Find TextView and set formatted date on it
-        viewHolder.dateView.setText(Utility.getFriendlyDayString(context, dateString));
-
-        // Read weather forecast from cursor
-        String description = cursor.getString(ForecastFragment.COL_WEATHER_DESC);
-        // Find TextView and set weather forecast on it
-        viewHolder.descriptionView.setText(description);
-
-        // Read user preference for metric or imperial temperature units
-        boolean isMetric = Utility.isMetric(context);
+        viewHolder.dateView.setText(mRows.getDate(position));
+        viewHolder.descriptionView.setText(mRows.getDescription(position));
+        viewHolder.highTempView.setText(mRows.getHigh(position));
+        viewHolder.lowTempView.setText(mRows.getLow(position));
+    }
 
-        // Read high temperature from cursor
-        double high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        viewHolder.highTempView.setText(Utility.formatTemperature(context, high, isMetric));
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
 
-        // Read low temperature from cursor
-        double low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        viewHolder.lowTempView.setText(Utility.formatTemperature(context, low, isMetric));
+    @Override
+    public long getItemId(int position) {
+        // The _ids of weather rows change whenever a sync replaces them.
+        return mRows != null ? mRows.getId(position) : 0;
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
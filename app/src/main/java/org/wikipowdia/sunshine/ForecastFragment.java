@@ -5,7 +5,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -16,6 +15,7 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ListView;
 
+import org.wikipowdia.sunshine.data.ForecastSnapshot;
 import org.wikipowdia.sunshine.data.WeatherContract;
 import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
@@ -34,6 +34,17 @@ public class ForecastFragment extends Fragment implements LoaderCallbacks<Cursor
     private ListView mListView;
     private int mPosition = ListView.INVALID_POSITION;
     private boolean mUseTodayLayout;
+    // Shown until the loader delivers its first cursor.
+    private Cursor mSnapshotCursor;
+    private ForecastViewPool mViewPool;
+
+    // Releases the view pool once the list has laid out the rows of the first forecast.
+    private final Runnable mReleaseViewPool = new Runnable() {
+        @Override
+        public void run() {
+            releaseViewPool();
+        }
+    };
 
     private static final String SELECTED_KEY = "selected_position";
 
@@ -143,12 +154,31 @@ public class ForecastFragment extends Fragment implements LoaderCallbacks<Cursor
         }
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
-        
+
+        // Inflate the rows while the forecast loads, rather than on the first layout.  When
+        // the view is recreated, e.g. on rotation, the loader already holds the forecast and
+        // hands it over as soon as the fragment starts: there is no load to overlap with.
+        if (getLoaderManager().getLoader(FORECAST_LOADER) == null) {
+            mViewPool = new ForecastViewPool();
+            mViewPool.start(getActivity(), mListView);
+            mForecastAdapter.setViewPool(mViewPool);
+        }
+
         return rootView;
     }
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
+        if (getLoaderManager().getLoader(FORECAST_LOADER) == null) {
+            // On a cold start the loader's query is a few frames away, so paint the forecast
+            // saved by the last sync in the meantime.
+            mSnapshotCursor = ForecastSnapshot.read(getActivity(),
+                    Utility.getPreferredLocation(getActivity()),
+                    WeatherContract.getDay(new Date()), FORECAST_COLUMNS);
+            if (mSnapshotCursor != null) {
+                mForecastAdapter.swapCursor(mSnapshotCursor);
+            }
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -163,6 +193,10 @@ public class ForecastFragment extends Fragment implements LoaderCallbacks<Cursor
         super.onResume();
         if (mLocation != null && !mLocation.equals(Utility.getPreferredLocation(getActivity()))) {
             getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        } else if (!mForecastAdapter.isCurrent(getActivity())) {
+            // The units or the locale changed, or the day went by, since the rows were
+            // formatted.  Format them again on the loader's thread.
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
         }
     }
 
@@ -188,7 +222,7 @@ public class ForecastFragment extends Fragment implements LoaderCallbacks<Cursor
         String startDate = WeatherContract.getDbDateString(new Date());
 
         // Sort order:  Ascending, by date.
-        String sortOrder = WeatherEntry.COLUMN_DATETEXT + " ASC";
+        String sortOrder = WeatherEntry.COLUMN_DAY + " ASC";
 
         mLocation = Utility.getPreferredLocation(getActivity());
         Uri weatherForLocationUri = WeatherEntry.buildWeatherLocationWithStartDate(
@@ -196,7 +230,7 @@ public class ForecastFragment extends Fragment implements LoaderCallbacks<Cursor
 
         // Now create and return a CursorLoader that will take care of
         // creating a Cursor for the data being displayed.
-        return new CursorLoader(
+        return new ForecastLoader(
                 getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
@@ -212,6 +246,11 @@ public class ForecastFragment extends Fragment implements LoaderCallbacks<Cursor
             SunshineSyncAdapter.syncImmediately(getActivity());
         }
         mForecastAdapter.swapCursor(data);
+        closeSnapshot();
+        if (mViewPool != null) {
+            // Posted, so that it runs after the layout of the new rows.
+            mListView.post(mReleaseViewPool);
+        }
         if (mPosition != ListView.INVALID_POSITION) {
             // If we don't need to restart the loader, and there's a desired position to restore
             // to, do so now.
@@ -222,6 +261,33 @@ public class ForecastFragment extends Fragment implements LoaderCallbacks<Cursor
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         mForecastAdapter.swapCursor(null);
+        closeSnapshot();
+    }
+
+    @Override
+    public void onDestroyView() {
+        mListView.removeCallbacks(mReleaseViewPool);
+        releaseViewPool();
+        super.onDestroyView();
+    }
+
+    /**
+     * Lets go of the rows the list didn't take from the pool.  Those are views of the Activity,
+     * e.g. the today row in two pane mode, or the rows past the end of a short forecast.
+     */
+    private void releaseViewPool() {
+        if (mViewPool != null) {
+            mViewPool.release();
+            mViewPool = null;
+            mForecastAdapter.setViewPool(null);
+        }
+    }
+
+    private void closeSnapshot() {
+        if (mSnapshotCursor != null) {
+            mSnapshotCursor.close();
+            mSnapshotCursor = null;
+        }
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
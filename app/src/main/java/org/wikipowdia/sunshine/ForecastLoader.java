@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * Loads the forecast list's cursor, formats its rows and decodes their icons on the loader's
+ * background thread, delivering a {@link ForecastRows.RowsCursor}.  The rows are compared with
+ * the previous load's, so that only the rows that changed are bound again.
+ */
+class ForecastLoader extends CursorLoader {
+
+    // The rows of the previous load.  Only touched by loadInBackground, which loads run one
+    // at a time.
+    private ForecastRows mPreviousRows;
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        ForecastRows rows = ForecastRows.build(getContext(), cursor);
+        rows.prefetchDrawables(getContext());
+        if (mPreviousRows != null) {
+            rows.reuseStamps(mPreviousRows);
+        }
+        mPreviousRows = rows;
+        return new ForecastRows.RowsCursor(cursor, rows);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import org.wikipowdia.sunshine.data.WeatherContract;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The text and icons of the forecast list, formatted ahead of time for every row of a
+ * forecast cursor.  Formatting a day or a temperature takes calendars, date formats and
+ * resource lookups, which {@link ForecastAdapter} would otherwise repeat on every bind while
+ * the list scrolls.
+ *
+ * The rows hold the units, locale and day they were formatted for; once
+ * {@link #isCurrent(Context)} turns false, the cursor must be loaded again.
+ *
+ * Each row has an id that is stable across loads, made of its location and day, and a stamp
+ * identifying its content.  {@link #reuseStamps} gives the rows that didn't change since the
+ * previous load their previous stamps, so the adapter can skip binding them again.
+ */
+class ForecastRows {
+
+    /**
+     * A forecast cursor carrying its formatted rows, as delivered by {@link ForecastLoader}.
+     */
+    static class RowsCursor extends CursorWrapper {
+        final ForecastRows mRows;
+
+        RowsCursor(Cursor cursor, ForecastRows rows) {
+            super(cursor);
+            mRows = rows;
+        }
+    }
+
+    private final boolean mMetric;
+    private final Locale mLocale;
+    private final int mToday;
+
+    // Stamps are only ever reused for identical content, so equal stamps mean equal rows.
+    private static final AtomicLong sNextStamp = new AtomicLong(1);
+
+    private final long[] mIds;
+    private final long[] mStamps;
+    private final String[] mDates;
+    private final String[] mDescriptions;
+    private final String[] mHighs;
+    private final String[] mLows;
+    private final int[] mIconIds;
+    private final int[] mArtIds;
+
+    private ForecastRows(Context context, int count) {
+        mMetric = Utility.isMetric(context);
+        mLocale = Locale.getDefault();
+        mToday = WeatherContract.getDay(new Date());
+        mIds = new long[count];
+        mStamps = new long[count];
+        mDates = new String[count];
+        mDescriptions = new String[count];
+        mHighs = new String[count];
+        mLows = new String[count];
+        mIconIds = new int[count];
+        mArtIds = new int[count];
+    }
+
+    /**
+     * Formats every row of a cursor over the forecast list's columns.  Meant to be called off
+     * the main thread.  The cursor is left before its first row.
+     */
+    static ForecastRows build(Context context, Cursor cursor) {
+        ForecastRows rows = new ForecastRows(context, cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            int i = cursor.getPosition();
+            String date = cursor.getString(ForecastFragment.COL_WEATHER_DATE);
+            rows.mIds[i] = getId(cursor.getString(ForecastFragment.COL_LOCATION_SETTING),
+                    WeatherContract.getDayFromDbDate(date));
+            rows.mStamps[i] = sNextStamp.getAndIncrement();
+            rows.mDates[i] = Utility.getFriendlyDayString(context, date);
+            rows.mDescriptions[i] = cursor.getString(ForecastFragment.COL_WEATHER_DESC);
+            rows.mHighs[i] = Utility.formatTemperature(context,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), rows.mMetric);
+            rows.mLows[i] = Utility.formatTemperature(context,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP), rows.mMetric);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            rows.mIconIds[i] = Utility.getIconResourceForWeatherCondition(weatherId);
+            rows.mArtIds[i] = Utility.getArtResourceForWeatherCondition(weatherId);
+        }
+        cursor.moveToPosition(-1);
+        return rows;
+    }
+
+    private static long getId(String locationSetting, int day) {
+        return ((long) locationSetting.hashCode() << 32) | (day & 0xffffffffL);
+    }
+
+    /**
+     * Gives every row showing the same content as a row of {@code previous} the stamp of that
+     * row.  Meant to be called off the main thread, before the rows are delivered.
+     */
+    void reuseStamps(ForecastRows previous) {
+        HashMap<Long, Integer> previousPositions = new HashMap<Long, Integer>(previous.size());
+        for (int i = 0; i < previous.size(); i++) {
+            previousPositions.put(previous.mIds[i], i);
+        }
+        for (int i = 0; i < size(); i++) {
+            Integer j = previousPositions.get(mIds[i]);
+            if (j != null && isSameContent(i, previous, j)) {
+                mStamps[i] = previous.mStamps[j];
+            }
+        }
+    }
+
+    private boolean isSameContent(int i, ForecastRows other, int j) {
+        return mDates[i].equals(other.mDates[j]) &&
+                mDescriptions[i].equals(other.mDescriptions[j]) &&
+                mHighs[i].equals(other.mHighs[j]) &&
+                mLows[i].equals(other.mLows[j]) &&
+                mIconIds[i] == other.mIconIds[j] &&
+                mArtIds[i] == other.mArtIds[j];
+    }
+
+    /**
+     * Decodes the icons and art of the rows, see {@link WeatherIcons}.  Meant to be called off
+     * the main thread.
+     */
+    void prefetchDrawables(Context context) {
+        WeatherIcons.prefetch(context, mIconIds);
+        WeatherIcons.prefetch(context, mArtIds);
+    }
+
+    /**
+     * @return whether the rows were formatted for the current units, locale and day.
+     */
+    boolean isCurrent(Context context) {
+        return mMetric == Utility.isMetric(context) &&
+                mLocale.equals(Locale.getDefault()) &&
+                mToday == WeatherContract.getDay(new Date());
+    }
+
+    int size() {
+        return mDates.length;
+    }
+
+    /**
+     * @return the id of row i, the same for its location and day in every load.
+     */
+    long getId(int i) {
+        return mIds[i];
+    }
+
+    /**
+     * @return the stamp of row i's content.  Rows with the same stamp show the same content.
+     */
+    long getStamp(int i) {
+        return mStamps[i];
+    }
+
+    String getDate(int i) {
+        return mDates[i];
+    }
+
+    String getDescription(int i) {
+        return mDescriptions[i];
+    }
+
+    String getHigh(int i) {
+        return mHighs[i];
+    }
+
+    String getLow(int i) {
+        return mLows[i];
+    }
+
+    /**
+     * @return the small icon of row i, for the list items of the days after today.
+     */
+    int getIconId(int i) {
+        return mIconIds[i];
+    }
+
+    /**
+     * @return the large art of row i, for the list item of today.
+     */
+    int getArtId(int i) {
+        return mArtIds[i];
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Inflates the rows of the forecast list on a background thread while the forecast loads, so
+ * that the first layout of the list takes ready made rows instead of inflating a screenful of
+ * them on the main thread.
+ *
+ * The rows belong to the Activity the list is shown in, so a pool must be released once the
+ * list has taken what it needs, and at the latest when the list is destroyed.
+ *
+ * @see ForecastAdapter#setViewPool(ForecastViewPool)
+ */
+class ForecastViewPool {
+
+    private static final String LOG_TAG = ForecastViewPool.class.getSimpleName();
+
+    // Upper bound on the rows of a screen, whatever the estimate.
+    private static final int MAX_ROWS = 16;
+
+    // One thread inflates for every pool, so that recreating the list repeatedly, e.g. on
+    // rotation, queues the work instead of starting a thread each time.
+    private static final ExecutorService sInflateExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, LOG_TAG);
+                }
+            });
+
+    private final ArrayList<View> mTodayViews = new ArrayList<View>();
+    private final ArrayList<View> mFutureDayViews = new ArrayList<View>();
+
+    // The Activity and the list the rows are inflated for, until the pool is released.  The
+    // queued inflation only refers to the pool, so that it doesn't keep them alive.
+    private Context mContext;
+    private ViewGroup mParent;
+
+    /**
+     * Starts inflating about a screenful of rows, for a list that will be shown in
+     * {@code parent}.  Whether the list uses the layout for today usually isn't known yet, so
+     * the pool holds a today row on top of a screenful of rows for the other days.
+     */
+    void start(Context context, ViewGroup parent) {
+        final int rowCount = getRowsPerScreen(context);
+        synchronized (this) {
+            mContext = context;
+            mParent = parent;
+        }
+        sInflateExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!inflate(true)) {
+                        return;
+                    }
+                    for (int i = 0; i < rowCount; i++) {
+                        if (!inflate(false)) {
+                            return;
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // The rows left are inflated by the adapter, as usual.
+                    Log.w(LOG_TAG, "Could not inflate forecast rows in the background", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Inflates a row into the pool.
+     *
+     * @return false if the pool was released, and there is nothing left to inflate.
+     */
+    private boolean inflate(boolean today) {
+        Context context;
+        ViewGroup parent;
+        synchronized (this) {
+            context = mContext;
+            parent = mParent;
+        }
+        if (context == null) {
+            return false;
+        }
+        View view = LayoutInflater.from(context).inflate(today ?
+                R.layout.list_item_forecast_today : R.layout.list_item_forecast, parent, false);
+        view.setTag(new ForecastAdapter.ViewHolder(view));
+        synchronized (this) {
+            if (mContext == null) {
+                return false;
+            }
+            (today ? mTodayViews : mFutureDayViews).add(view);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the rows that weren't taken, and stops inflating new ones.
+     */
+    synchronized void release() {
+        mContext = null;
+        mParent = null;
+        mTodayViews.clear();
+        mFutureDayViews.clear();
+    }
+
+    /**
+     * @return a row inflated ahead of time with its {@link ForecastAdapter.ViewHolder}, or
+     * null if there is none left.
+     */
+    synchronized View take(boolean today) {
+        ArrayList<View> views = today ? mTodayViews : mFutureDayViews;
+        return views.isEmpty() ? null : views.remove(views.size() - 1);
+    }
+
+    private static int getRowsPerScreen(Context context) {
+        TypedValue value = new TypedValue();
+        float rowHeight = context.getTheme().resolveAttribute(
+                android.R.attr.listPreferredItemHeight, value, true) ?
+                value.getDimension(context.getResources().getDisplayMetrics()) : 0;
+        if (rowHeight <= 0) {
+            return MAX_ROWS;
+        }
+        int screenHeight = context.getResources().getDisplayMetrics().heightPixels;
+        return Math.min(MAX_ROWS, (int) (screenHeight / rowHeight) + 1);
+    }
+}
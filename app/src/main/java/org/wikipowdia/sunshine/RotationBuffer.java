@@ -0,0 +1,160 @@
+package org.wikipowdia.sunshine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands rotation samples from the sensor thread to the GL thread without locks and without
+ * tearing: a triple buffer, where the writer and the reader each own a sample, and swap it
+ * with the third, shared one.  The writer never waits for the reader, and the reader always
+ * gets the latest complete sample.
+ *
+ * The reader keeps the last two samples it got, and {@link #getRotation} estimates the
+ * rotation at the time a frame is drawn from them.
+ */
+class RotationBuffer {
+
+    /**
+     * A rotation, as a unit quaternion, at a point in time.
+     */
+    static class Sample {
+        float mX;
+        float mY;
+        float mZ;
+        float mW;
+        // Sensor event time, in nanoseconds.
+        long mTimestamp;
+        // System.nanoTime() when the event was received.
+        long mReceivedAt;
+
+        void set(Sample other) {
+            mX = other.mX;
+            mY = other.mY;
+            mZ = other.mZ;
+            mW = other.mW;
+            mTimestamp = other.mTimestamp;
+            mReceivedAt = other.mReceivedAt;
+        }
+    }
+
+    // Set in mShared when the shared sample is newer than the reader's.
+    private static final int DIRTY = 4;
+    private static final int INDEX_MASK = 3;
+
+    // How far past the latest sample the rotation may be extrapolated, as a fraction of the
+    // interval between the last two samples, and in time.
+    private static final float MAX_EXTRAPOLATION = 1f;
+    private static final long MAX_EXTRAPOLATION_NS = 20L * 1000 * 1000;
+
+    private final Sample[] mSamples = {new Sample(), new Sample(), new Sample()};
+
+    // Index of the shared sample, plus DIRTY.
+    private final AtomicInteger mShared = new AtomicInteger(1);
+
+    // Only touched by the writer.
+    private int mBack = 0;
+
+    // Only touched by the reader.
+    private int mFront = 2;
+    private final Sample mPrevious = new Sample();
+    private final Sample mLatest = new Sample();
+    private int mSampleCount;
+
+    /**
+     * Publishes a sample.  Called by the writer only.
+     *
+     * @param rotationVector the values of a rotation vector event.
+     */
+    void write(float[] rotationVector, long timestamp) {
+        Sample sample = mSamples[mBack];
+        sample.mX = rotationVector[0];
+        sample.mY = rotationVector[1];
+        sample.mZ = rotationVector[2];
+        // The scalar part is optional before Jelly Bean MR2.
+        sample.mW = rotationVector.length > 3 ? rotationVector[3] :
+                (float) Math.sqrt(Math.max(0, 1 - sample.mX * sample.mX -
+                        sample.mY * sample.mY - sample.mZ * sample.mZ));
+        sample.mTimestamp = timestamp;
+        sample.mReceivedAt = System.nanoTime();
+        mBack = mShared.getAndSet(mBack | DIRTY) & INDEX_MASK;
+    }
+
+    /**
+     * Estimates the rotation at {@code frameTime}, slerping between the last two samples and
+     * extrapolating a little past the latest one.  Called by the reader only.
+     *
+     * @param rotationVector receives the rotation, as x, y, z, w.
+     * @param frameTime the time the frame is drawn, in System.nanoTime() time.
+     * @return false if no sample was written yet.
+     */
+    boolean getRotation(float[] rotationVector, long frameTime) {
+        if ((mShared.get() & DIRTY) != 0) {
+            mFront = mShared.getAndSet(mFront) & INDEX_MASK;
+            mPrevious.set(mLatest);
+            mLatest.set(mSamples[mFront]);
+            mSampleCount++;
+        }
+        if (mSampleCount == 0) {
+            return false;
+        }
+
+        long interval = mLatest.mTimestamp - mPrevious.mTimestamp;
+        if (mSampleCount == 1 || interval <= 0) {
+            set(rotationVector, mLatest);
+            return true;
+        }
+
+        // The frame's time in the sensor's clock, taking the latest sample as received as
+        // soon as it was measured.
+        long ahead = Math.min(frameTime - mLatest.mReceivedAt, MAX_EXTRAPOLATION_NS);
+        float t = 1 + Math.min(MAX_EXTRAPOLATION, Math.max(0, ahead) / (float) interval);
+        slerp(mPrevious, mLatest, t, rotationVector);
+        return true;
+    }
+
+    private static void set(float[] rotationVector, Sample sample) {
+        rotationVector[0] = sample.mX;
+        rotationVector[1] = sample.mY;
+        rotationVector[2] = sample.mZ;
+        rotationVector[3] = sample.mW;
+    }
+
+    /**
+     * Spherical linear interpolation from {@code a}, at t = 0, to {@code b}, at t = 1.  Values
+     * of t over 1 extrapolate along the same arc.
+     */
+    static void slerp(Sample a, Sample b, float t, float[] out) {
+        float bx = b.mX, by = b.mY, bz = b.mZ, bw = b.mW;
+        float dot = a.mX * bx + a.mY * by + a.mZ * bz + a.mW * bw;
+        if (dot < 0) {
+            // q and -q are the same rotation.  Take the short way around.
+            dot = -dot;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+            bw = -bw;
+        }
+
+        float wa;
+        float wb;
+        if (dot > 0.9995f) {
+            // Nearly the same rotation: interpolate linearly, to avoid dividing by ~0.
+            wa = 1 - t;
+            wb = t;
+        } else {
+            double theta = Math.acos(dot);
+            double sinTheta = Math.sin(theta);
+            wa = (float) (Math.sin((1 - t) * theta) / sinTheta);
+            wb = (float) (Math.sin(t * theta) / sinTheta);
+        }
+
+        float x = wa * a.mX + wb * bx;
+        float y = wa * a.mY + wb * by;
+        float z = wa * a.mZ + wb * bz;
+        float w = wa * a.mW + wb * bw;
+        float norm = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        out[0] = x / norm;
+        out[1] = y / norm;
+        out[2] = z / norm;
+        out[3] = w / norm;
+    }
+}
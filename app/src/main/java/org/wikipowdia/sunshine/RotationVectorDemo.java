@@ -65,12 +65,21 @@ public class RotationVectorDemo extends Activity {
     class MyRenderer implements GLSurfaceView.Renderer, SensorEventListener {
         private Cube mCube;
         private Sensor mRotationVectorSensor;
+        private AdaptiveSensorRate mSensorRate;
+        // Only touched on the GL thread.
         private final float[] mRotationMatrix = new float[16];
+        private final float[] mRotationVector = new float[4];
+        // Hands the samples from the sensor thread to the GL thread.
+        private final RotationBuffer mRotations = new RotationBuffer();
 
         public MyRenderer() {
             // find the rotation-vector sensor
             mRotationVectorSensor = mSensorManager.getDefaultSensor(
                     Sensor.TYPE_ROTATION_VECTOR);
+            // ask for 10 ms updates while the device turns, and for
+            // fewer, batched ones while it lies still.
+            mSensorRate = new AdaptiveSensorRate(mSensorManager, this,
+                    mRotationVectorSensor, 10000, null);
 
             mCube = new Cube();
             // initialize the rotation matrix to identity
@@ -81,29 +90,36 @@ public class RotationVectorDemo extends Activity {
         }
 
         public void start() {
-            // enable our sensor when the activity is resumed, ask for
-            // 10 ms updates.
-            mSensorManager.registerListener(this, mRotationVectorSensor, 10000);
+            // enable our sensor when the activity is resumed
+            mSensorRate.start();
         }
 
         public void stop() {
             // make sure to turn our sensor off when the activity is paused
-            mSensorManager.unregisterListener(this);
+            mSensorRate.stop();
         }
 
         public void onSensorChanged(SensorEvent event) {
             // we received a sensor event. it is a good practice to check
             // that we received the proper event
             if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-                // convert the rotation-vector to a 4x4 matrix. the matrix
-                // is interpreted by Open GL as the inverse of the
-                // rotation-vector, which is what we want.
-                SensorManager.getRotationMatrixFromVector(
-                        mRotationMatrix , event.values);
+                mSensorRate.onSensorChanged(event);
+                // hand the rotation to the GL thread, which converts it
+                // when it draws a frame.
+                mRotations.write(event.values, event.timestamp);
             }
         }
 
         public void onDrawFrame(GL10 gl) {
+            // estimate the rotation at the time of this frame, and
+            // convert it to a 4x4 matrix. the matrix is interpreted by
+            // Open GL as the inverse of the rotation-vector, which is
+            // what we want.
+            if (mRotations.getRotation(mRotationVector, System.nanoTime())) {
+                SensorManager.getRotationMatrixFromVector(
+                        mRotationMatrix, mRotationVector);
+            }
+
             // clear screen
             gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
 
@@ -1,45 +1,83 @@
 package org.wikipowdia.sunshine;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.media.AudioManager;
-import android.view.GestureDetector;
-import android.view.MotionEvent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.Choreographer;
 import android.widget.ListView;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Implements sensor-based scrolling of a ListView
+ *
+ * Sensor events are filtered on a background thread, which only hands the number of scroll
+ * steps to the main thread.  The main thread scrolls at most once per frame.
  */
 public class SensorListController implements SensorEventListener{
 
     static final String TAG = "SensorListController";
 
+    // Weight of a new pitch in the low-pass filtered pitch.
+    private static final float PITCH_FILTER_ALPHA = 0.3f;
+
+    // Change of filtered pitch between two events, in degrees, that starts a scroll...
+    private static final float Y_DELTA_START_THRESHOLD = 0.13f;
+
+    // ...and that a scroll goes on with.  Lower, so that a scroll doesn't stutter while the
+    // change hovers around the start threshold.
+    private static final float Y_DELTA_STOP_THRESHOLD = 0.08f;
+
+    // 4 items per page, scroll almost 1/5 an item per step.
+    private static final int SCROLL_STEPS_PER_LIST = 19;
+
+    // The sampling period of SensorManager.SENSOR_DELAY_UI.
+    private static final int SENSOR_DELAY_UI_US = 60000;
+
+    // Fallback frame interval, before Choreographer.
+    private static final long FRAME_DELAY_MS = 16;
+
     Context mContext;
 
     ListView mList;
 
     SensorManager mSensorManager;
 
+    // Only touched on the sensor thread.
     private float[] mRotationMatrix = new float[16];
 
     private float[] mOrientation = new float[9];
 
-    private float[] history = new float[2];
+    private float mFilteredPitch = Float.NaN;
+
+    private boolean mScrolling;
+
+    // Handed from the sensor thread to the main thread.
+    private final AtomicInteger mPendingSteps = new AtomicInteger();
 
-    private float mHeading;
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
 
-    private float mPitch;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
-    boolean mActive = true;
+    private HandlerThread mSensorThread;
+
+    private AdaptiveSensorRate mSensorRate;
+
+    private Object mFrameCallback;
+
+    volatile boolean mActive = true;
 
     public SensorListController(Context context, ListView list) {
         this.mContext = context;
         this.mList = list;
-        history[0] = 10;
-        history[1] = 10;
     }
 
 
@@ -47,17 +85,26 @@ public class SensorListController implements SensorEventListener{
      * Should be called from the onResume() of Activity
      */
     public void onResume() {
+        mFilteredPitch = Float.NaN;
+        mScrolling = false;
+        mSensorThread = new HandlerThread(TAG);
+        mSensorThread.start();
         mSensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
-        mSensorManager.registerListener(this,
+        // At the UI rate while the list is tilted, and at a low rate when it is held still.
+        mSensorRate = new AdaptiveSensorRate(mSensorManager, this,
                 mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR),
-                SensorManager.SENSOR_DELAY_UI);
+                SENSOR_DELAY_UI_US, new Handler(mSensorThread.getLooper()));
+        mSensorRate.start();
     }
 
     /**
      * Should be called from the onPause() of Activity
      */
     public void onPause() {
-        mSensorManager.unregisterListener(this);
+        mSensorRate.stop();
+        mSensorThread.quit();
+        mSensorThread = null;
+        mPendingSteps.set(0);
     }
 
     /**
@@ -67,8 +114,12 @@ public class SensorListController implements SensorEventListener{
         mActive = !mActive;
     }
 
+    /**
+     * Called on the sensor thread.
+     */
     @Override
     public void onSensorChanged(SensorEvent event) {
+        mSensorRate.onSensorChanged(event);
         if (mList == null || !mActive) {
             return;
         }
@@ -79,30 +130,25 @@ public class SensorListController implements SensorEventListener{
                     SensorManager.AXIS_Z, mRotationMatrix);
             SensorManager.getOrientation(mRotationMatrix, mOrientation);
 
-            mHeading = (float) Math.toDegrees(mOrientation[0]);
-            mPitch = (float) Math.toDegrees(mOrientation[1]);
-
-            float xDelta = history[0] - mHeading;  // Currently unused
-            float yDelta = history[1] - mPitch;
-
-            history[0] = mHeading;
-            history[1] = mPitch;
-
-            float Y_DELTA_THRESHOLD = 0.13f;
-
-//            Log.d(TAG, "Y Delta = " + yDelta);
-
-            int scrollHeight = mList.getHeight()
-                    / 19; // 4 items per page, scroll almost 1/5 an item
-
-//            Log.d(TAG, "ScrollHeight = " + scrollHeight);
+            float pitch = (float) Math.toDegrees(mOrientation[1]);
+            if (Float.isNaN(mFilteredPitch)) {
+                mFilteredPitch = pitch;
+                return;
+            }
 
-            if (yDelta > Y_DELTA_THRESHOLD) {
-//                Log.d(TAG, "Detected change in pitch up...");
-                mList.smoothScrollBy(-scrollHeight, 0);
-            } else if (yDelta < -Y_DELTA_THRESHOLD) {
-//                Log.d(TAG, "Detected change in pitch down...");
-                mList.smoothScrollBy(scrollHeight, 0);
+            // Low-pass the pitch, so the hand's tremor doesn't scroll the list.
+            float previousPitch = mFilteredPitch;
+            mFilteredPitch += PITCH_FILTER_ALPHA * (pitch - mFilteredPitch);
+            float yDelta = previousPitch - mFilteredPitch;
+
+            mScrolling = Math.abs(yDelta) >
+                    (mScrolling ? Y_DELTA_STOP_THRESHOLD : Y_DELTA_START_THRESHOLD);
+            if (mScrolling) {
+                // Pitch up scrolls up, pitch down scrolls down.
+                mPendingSteps.addAndGet(yDelta > 0 ? -1 : 1);
+                if (mFrameScheduled.compareAndSet(false, true)) {
+                    mMainHandler.post(mScheduleFrame);
+                }
             }
         }
     }
@@ -111,7 +157,51 @@ public class SensorListController implements SensorEventListener{
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
     }
 
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                postFrameCallback();
+            } else {
+                mMainHandler.postDelayed(mApplyScroll, FRAME_DELAY_MS);
+            }
+        }
+    };
+
+    private final Runnable mApplyScroll = new Runnable() {
+        @Override
+        public void run() {
+            applyScroll();
+        }
+    };
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    applyScroll();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(
+                (Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    /**
+     * Scrolls by every step accumulated since the last frame, in one go.
+     */
+    private void applyScroll() {
+        mFrameScheduled.set(false);
+        int steps = mPendingSteps.getAndSet(0);
+        if (steps != 0 && mActive) {
+            int scrollHeight = mList.getHeight() / SCROLL_STEPS_PER_LIST;
+            mList.smoothScrollBy(steps * scrollHeight, 0);
+        }
+    }
+
     private void scrollToTop() {
         mList.smoothScrollToPosition(0);
     }
-}
\ No newline at end of file
+}
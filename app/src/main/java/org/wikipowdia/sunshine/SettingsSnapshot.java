@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * An immutable copy of the user's settings.  The list, the detail view and the sync adapter
+ * read settings on every bind, load and sync, so they read this copy instead of looking the
+ * preferences and their keys up each time.
+ *
+ * The copy is read once, on first use, and refreshed by {@link SettingsActivity} as the user
+ * changes a setting.
+ */
+public class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+
+    private final String mLocation;
+    private final boolean mMetric;
+    private final int mHistoryDays;
+    private final boolean mNotificationsEnabled;
+
+    private SettingsSnapshot(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+        mHistoryDays = Integer.parseInt(prefs.getString(
+                context.getString(R.string.pref_history_key),
+                context.getString(R.string.pref_history_default)));
+        mNotificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(
+                        context.getString(R.string.pref_enable_notifications_default)));
+    }
+
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot settings = sCurrent;
+        if (settings == null) {
+            // Racing threads may both read the preferences, to the same result.
+            settings = new SettingsSnapshot(context.getApplicationContext());
+            sCurrent = settings;
+        }
+        return settings;
+    }
+
+    /**
+     * Reads the preferences again.  Must be called once a setting has been stored.
+     */
+    static void refresh(Context context) {
+        sCurrent = new SettingsSnapshot(context.getApplicationContext());
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the number of past days whose weather is kept in the database.
+     */
+    public int getHistoryDays() {
+        return mHistoryDays;
+    }
+
+    public boolean isNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+}
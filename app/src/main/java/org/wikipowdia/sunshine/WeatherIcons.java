@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+import android.widget.ImageView;
+
+/**
+ * Keeps the weather icons and art decoded.  A condition's drawable is otherwise decoded on the
+ * main thread the first time a row of that condition is bound, which drops frames while the
+ * list scrolls.
+ *
+ * {@link #prefetch} decodes the drawables of a forecast off the main thread, and
+ * {@link #setImage} hands views new drawables sharing the decoded bitmaps.  The weather
+ * drawables are a couple dozen resources, so they are kept for the life of the process.
+ */
+public class WeatherIcons {
+
+    private static final SparseArray<Drawable.ConstantState> sStates =
+            new SparseArray<Drawable.ConstantState>();
+
+    /**
+     * Decodes the drawables not decoded yet.  Meant to be called off the main thread.
+     *
+     * @param resIds drawable resource ids, where -1 stands for no drawable.
+     */
+    static void prefetch(Context context, int[] resIds) {
+        Resources resources = context.getResources();
+        for (int resId : resIds) {
+            if (resId == -1) {
+                continue;
+            }
+            synchronized (sStates) {
+                if (sStates.get(resId) != null) {
+                    continue;
+                }
+            }
+            // Decoded outside the lock, so the main thread never waits for a decode.
+            Drawable.ConstantState state = resources.getDrawable(resId).getConstantState();
+            if (state != null) {
+                synchronized (sStates) {
+                    sStates.put(resId, state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the drawable of a weather condition on a view, from the decoded drawable if there
+     * is one, and from the resource otherwise.
+     */
+    public static void setImage(ImageView view, int resId) {
+        Drawable.ConstantState state;
+        synchronized (sStates) {
+            state = sStates.get(resId);
+        }
+        if (state != null) {
+            view.setImageDrawable(state.newDrawable(view.getResources()));
+        } else {
+            view.setImageResource(resId);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * The plumbing shared by the column oriented batches, {@link WeatherBatch} and
+ * {@link HourlyBatch}.  A batch keeps one primitive array per column of its table, the
+ * location key first, and hands them over here as an {@code Object[]}: growing, appending,
+ * bundling and converting to {@link ContentValues} then work column by column, whatever the
+ * type of the column.  Only the rows are walked by the subclasses, on their typed arrays.
+ */
+abstract class ColumnBatch {
+
+    // Bundle key of the number of rows stored by a WeatherProvider.call.
+    static final String KEY_COUNT = "count";
+
+    // The column of each array, also used as its key in a Bundle.
+    private final String[] mColumnNames;
+
+    int mSize;
+    private int mCapacity;
+
+    ColumnBatch(String[] columnNames) {
+        mColumnNames = columnNames;
+    }
+
+    /**
+     * @return the column arrays, in the order of the column names.
+     */
+    abstract Object[] getColumns();
+
+    /**
+     * Replaces the column arrays with {@code columns}, in the order of the column names.
+     */
+    abstract void setColumns(Object[] columns);
+
+    /**
+     * Replaces the column arrays, which must all be of the same length.
+     */
+    final void useColumns(Object[] columns) {
+        setColumns(columns);
+        mCapacity = Array.getLength(columns[0]);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Sets the location key of every row in the batch.
+     */
+    public void setLocationId(long locationId) {
+        Arrays.fill((long[]) getColumns()[0], 0, mSize, locationId);
+    }
+
+    final void ensureCapacity(int capacity) {
+        if (capacity <= mCapacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mCapacity * 2);
+        Object[] columns = getColumns();
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = copyOf(columns[c], mSize, newCapacity);
+        }
+        useColumns(columns);
+    }
+
+    final void appendAll(ColumnBatch other) {
+        ensureCapacity(mSize + other.mSize);
+        Object[] columns = getColumns();
+        Object[] otherColumns = other.getColumns();
+        for (int c = 0; c < columns.length; c++) {
+            System.arraycopy(otherColumns[c], 0, columns[c], mSize, other.mSize);
+        }
+        mSize += other.mSize;
+    }
+
+    /**
+     * Stores the batch through the weather provider, in a single transaction, and returns the
+     * number of rows stored.  Uses the columnar fast path where the platform supports
+     * {@link ContentResolver#call}, and falls back to a regular bulk insert otherwise.
+     */
+    final int bulkInsert(ContentResolver resolver, Uri uri, String method) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return callBulkInsert(resolver, uri, method);
+        }
+        return resolver.bulkInsert(uri, toContentValues());
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int callBulkInsert(ContentResolver resolver, Uri uri, String method) {
+        Bundle result = resolver.call(uri, method, null, toBundle());
+        return result == null ? 0 : result.getInt(KEY_COUNT);
+    }
+
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        Object[] columns = getColumns();
+        for (int c = 0; c < columns.length; c++) {
+            Object column = copyOf(columns[c], mSize, mSize);
+            String key = mColumnNames[c];
+            if (column instanceof long[]) {
+                bundle.putLongArray(key, (long[]) column);
+            } else if (column instanceof int[]) {
+                bundle.putIntArray(key, (int[]) column);
+            } else if (column instanceof double[]) {
+                bundle.putDoubleArray(key, (double[]) column);
+            } else {
+                bundle.putStringArray(key, (String[]) column);
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * Takes the rows sent by {@link #toBundle()}.
+     *
+     * @return false if the bundle doesn't hold a batch.
+     */
+    final boolean readBundle(Bundle bundle) {
+        if (bundle == null) {
+            return false;
+        }
+        Object[] columns = new Object[mColumnNames.length];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = bundle.get(mColumnNames[c]);
+            if (columns[c] == null) {
+                return false;
+            }
+        }
+        useColumns(columns);
+        mSize = mCapacity;
+        return true;
+    }
+
+    public ContentValues[] toContentValues() {
+        ContentValues[] values = new ContentValues[mSize];
+        Object[] columns = getColumns();
+        for (int i = 0; i < mSize; i++) {
+            ContentValues rowValues = new ContentValues();
+            for (int c = 0; c < columns.length; c++) {
+                Object column = columns[c];
+                String key = mColumnNames[c];
+                if (column instanceof long[]) {
+                    rowValues.put(key, ((long[]) column)[i]);
+                } else if (column instanceof int[]) {
+                    rowValues.put(key, ((int[]) column)[i]);
+                } else if (column instanceof double[]) {
+                    rowValues.put(key, ((double[]) column)[i]);
+                } else {
+                    rowValues.put(key, ((String[]) column)[i]);
+                }
+            }
+            values[i] = rowValues;
+        }
+        return values;
+    }
+
+    static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * @return an array of the type of {@code array} and of the given length, starting with
+     * the first {@code count} elements of {@code array}.
+     */
+    private static Object copyOf(Object array, int count, int length) {
+        Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, copy, 0, count);
+        return copy;
+    }
+}
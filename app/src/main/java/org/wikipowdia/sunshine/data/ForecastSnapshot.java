@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A small binary file holding the last forecast synced for the preferred location, so the
+ * forecast list can be painted on a cold start before the loader's query has run.  The file
+ * is memory mapped and decoded straight into a cursor; it is rewritten after every sync.
+ *
+ * The layout is: magic, location setting, row count, then per row the day, weather id,
+ * min and max temperatures and short description.  Strings are UTF-8, prefixed by their
+ * length in bytes.  Numbers are big endian.
+ */
+public class ForecastSnapshot {
+
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.snapshot";
+
+    // "SUN" and the version of the layout.  A file of another version is ignored.
+    private static final int MAGIC = 0x53554e01;
+
+    /**
+     * Replaces the snapshot with the forecast of a location.  Failures are logged, the
+     * snapshot is only a shortcut.
+     */
+    public static void write(Context context, String locationSetting, WeatherBatch batch) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        // Written aside and renamed, so a reader never sees half a file.
+        File tmpFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(MAGIC);
+                writeString(out, locationSetting);
+                out.writeInt(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    out.writeInt(batch.getDay(i));
+                    out.writeInt(batch.getWeatherId(i));
+                    out.writeDouble(batch.getMinTemp(i));
+                    out.writeDouble(batch.getMaxTemp(i));
+                    writeString(out, batch.getShortDesc(i));
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tmpFile);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the forecast snapshot", e);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Reads the snapshot into a cursor shaped like the result of a weather by location
+     * query.  Columns of the projection the snapshot doesn't hold are null, and the _id
+     * column is the position of the row.
+     *
+     * @param firstDay the first day to return, as a number of days since the epoch.
+     * @return the forecast, or null if there is no snapshot of the location.
+     */
+    public static Cursor read(Context context, String locationSetting, int firstDay,
+                              String[] projection) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return read(buffer, locationSetting, firstDay, projection);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the forecast snapshot", e);
+        } catch (BufferUnderflowException e) {
+            Log.e(LOG_TAG, "Truncated forecast snapshot", e);
+        }
+        return null;
+    }
+
+    private static Cursor read(ByteBuffer buffer, String locationSetting, int firstDay,
+                               String[] projection) throws IOException {
+        if (buffer.getInt() != MAGIC || !locationSetting.equals(readString(buffer))) {
+            return null;
+        }
+
+        // Match the projection, which may qualify the columns, to what the snapshot holds.
+        int[] sources = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i].substring(projection[i].lastIndexOf('.') + 1);
+            sources[i] = getSource(column);
+        }
+
+        int count = buffer.getInt();
+        MatrixCursor cursor = new MatrixCursor(projection, count);
+        Object[] values = new Object[SOURCE_COUNT];
+        for (int i = 0; i < count; i++) {
+            int day = buffer.getInt();
+            values[SOURCE_WEATHER_ID] = buffer.getInt();
+            values[SOURCE_MIN_TEMP] = buffer.getDouble();
+            values[SOURCE_MAX_TEMP] = buffer.getDouble();
+            values[SOURCE_SHORT_DESC] = readString(buffer);
+            if (day < firstDay) {
+                continue;
+            }
+            values[SOURCE_ID] = (long) cursor.getCount();
+            values[SOURCE_DATETEXT] = WeatherContract.getDbDateFromDay(day);
+            values[SOURCE_LOCATION_SETTING] = locationSetting;
+
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (int source : sources) {
+                row.add(source == SOURCE_NONE ? null : values[source]);
+            }
+        }
+        return cursor;
+    }
+
+    private static final int SOURCE_NONE = -1;
+    private static final int SOURCE_ID = 0;
+    private static final int SOURCE_DATETEXT = 1;
+    private static final int SOURCE_SHORT_DESC = 2;
+    private static final int SOURCE_WEATHER_ID = 3;
+    private static final int SOURCE_MIN_TEMP = 4;
+    private static final int SOURCE_MAX_TEMP = 5;
+    private static final int SOURCE_LOCATION_SETTING = 6;
+    private static final int SOURCE_COUNT = 7;
+
+    private static int getSource(String column) {
+        if (WeatherEntry._ID.equals(column)) {
+            return SOURCE_ID;
+        } else if (WeatherEntry.COLUMN_DATETEXT.equals(column)) {
+            return SOURCE_DATETEXT;
+        } else if (WeatherEntry.COLUMN_SHORT_DESC.equals(column)) {
+            return SOURCE_SHORT_DESC;
+        } else if (WeatherEntry.COLUMN_WEATHER_ID.equals(column)) {
+            return SOURCE_WEATHER_ID;
+        } else if (WeatherEntry.COLUMN_MIN_TEMP.equals(column)) {
+            return SOURCE_MIN_TEMP;
+        } else if (WeatherEntry.COLUMN_MAX_TEMP.equals(column)) {
+            return SOURCE_MAX_TEMP;
+        } else if (LocationEntry.COLUMN_LOCATION_SETTING.equals(column)) {
+            return SOURCE_LOCATION_SETTING;
+        }
+        return SOURCE_NONE;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
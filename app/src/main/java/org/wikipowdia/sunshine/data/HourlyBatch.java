@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.content.ContentResolver;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
+
+/**
+ * A column oriented batch of hourly forecast rows, the counterpart of {@link WeatherBatch}
+ * for the hourly table.  A sync stores a few hundred of them, so they cross the provider
+ * boundary as arrays and are inserted through a single compiled statement.
+ *
+ * @see #bulkInsert(ContentResolver)
+ */
+public class HourlyBatch extends ColumnBatch {
+
+    // The columns of the hourly table a batch carries, i.e. all but _id, in the order of
+    // getColumns().
+    private static final String[] COLUMNS = {
+            HourlyEntry.COLUMN_LOC_KEY,
+            HourlyEntry.COLUMN_HOUR,
+            HourlyEntry.COLUMN_SHORT_DESC,
+            HourlyEntry.COLUMN_WEATHER_ID,
+            HourlyEntry.COLUMN_TEMP,
+            HourlyEntry.COLUMN_HUMIDITY,
+            HourlyEntry.COLUMN_PRESSURE,
+            HourlyEntry.COLUMN_WIND_SPEED,
+            HourlyEntry.COLUMN_DEGREES
+    };
+
+    // The columns bound by insert(SQLiteStatement), in order.
+    static final String SQL_INSERT = "INSERT INTO " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_HOUR + ", " +
+            HourlyEntry.COLUMN_SHORT_DESC + ", " +
+            HourlyEntry.COLUMN_WEATHER_ID + ", " +
+            HourlyEntry.COLUMN_TEMP + ", " +
+            HourlyEntry.COLUMN_HUMIDITY + ", " +
+            HourlyEntry.COLUMN_PRESSURE + ", " +
+            HourlyEntry.COLUMN_WIND_SPEED + ", " +
+            HourlyEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    long[] mLocationIds;
+    long[] mHours;
+    String[] mShortDescs;
+    int[] mWeatherIds;
+    double[] mTemps;
+    double[] mHumidities;
+    double[] mPressures;
+    double[] mWindSpeeds;
+    double[] mDegrees;
+
+    public HourlyBatch(int capacity) {
+        super(COLUMNS);
+        capacity = Math.max(capacity, 1);
+        useColumns(new Object[] {
+                new long[capacity],
+                new long[capacity],
+                new String[capacity],
+                new int[capacity],
+                new double[capacity],
+                new double[capacity],
+                new double[capacity],
+                new double[capacity],
+                new double[capacity]
+        });
+    }
+
+    @Override
+    Object[] getColumns() {
+        return new Object[] {
+                mLocationIds, mHours, mShortDescs, mWeatherIds, mTemps, mHumidities,
+                mPressures, mWindSpeeds, mDegrees
+        };
+    }
+
+    @Override
+    void setColumns(Object[] columns) {
+        mLocationIds = (long[]) columns[0];
+        mHours = (long[]) columns[1];
+        mShortDescs = (String[]) columns[2];
+        mWeatherIds = (int[]) columns[3];
+        mTemps = (double[]) columns[4];
+        mHumidities = (double[]) columns[5];
+        mPressures = (double[]) columns[6];
+        mWindSpeeds = (double[]) columns[7];
+        mDegrees = (double[]) columns[8];
+    }
+
+    public void add(long locationId, long hour, String shortDesc, int weatherId, double temp,
+                    double humidity, double pressure, double windSpeed, double degrees) {
+        ensureCapacity(mSize + 1);
+        int i = mSize++;
+        mLocationIds[i] = locationId;
+        mHours[i] = hour;
+        mShortDescs[i] = shortDesc;
+        mWeatherIds[i] = weatherId;
+        mTemps[i] = temp;
+        mHumidities[i] = humidity;
+        mPressures[i] = pressure;
+        mWindSpeeds[i] = windSpeed;
+        mDegrees[i] = degrees;
+    }
+
+    public void addAll(HourlyBatch other) {
+        appendAll(other);
+    }
+
+    public long getLocationId(int i) {
+        return mLocationIds[i];
+    }
+
+    /**
+     * @return the time of row i, as a number of hours since the epoch.
+     */
+    public long getHour(int i) {
+        return mHours[i];
+    }
+
+    public String getShortDesc(int i) {
+        return mShortDescs[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public double getTemp(int i) {
+        return mTemps[i];
+    }
+
+    /**
+     * Stores the batch through the weather provider, in a single transaction, and returns the
+     * number of rows stored.
+     */
+    public int bulkInsert(ContentResolver resolver) {
+        return bulkInsert(resolver, HourlyEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_HOURLY);
+    }
+
+    /**
+     * Inserts every row with {@code insert}, compiled from {@link #SQL_INSERT}.  Rows replace
+     * the stored ones of the same location and hour.
+     *
+     * @return the number of rows inserted.
+     */
+    int insert(SQLiteStatement insert) {
+        for (int i = 0; i < mSize; i++) {
+            insert.bindLong(1, mLocationIds[i]);
+            insert.bindLong(2, mHours[i]);
+            bindStringOrNull(insert, 3, mShortDescs[i]);
+            insert.bindLong(4, mWeatherIds[i]);
+            insert.bindDouble(5, mTemps[i]);
+            insert.bindDouble(6, mHumidities[i]);
+            insert.bindDouble(7, mPressures[i]);
+            insert.bindDouble(8, mWindSpeeds[i]);
+            insert.bindDouble(9, mDegrees[i]);
+            // executeInsert throws on a constraint violation rather than returning -1.
+            insert.executeInsert();
+        }
+        return mSize;
+    }
+
+    /**
+     * @return the batch sent by {@link #toBundle()}, or null if the bundle doesn't hold one.
+     */
+    static HourlyBatch fromBundle(Bundle bundle) {
+        HourlyBatch batch = new HourlyBatch(0);
+        return batch.readBundle(bundle) ? batch : null;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
+
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The forecasts of several locations, stored together in a single provider transaction.  The
+ * weather rows of all the locations are kept in one column oriented {@link WeatherBatch}, and
+ * their hourly rows in one {@link HourlyBatch}.  The location key of a row holds the index of
+ * its location in this batch until the provider resolves it to the location's _id.
+ *
+ * @see #store(ContentResolver)
+ */
+public class LocationForecasts {
+
+    // Bundle keys used to send the forecasts to WeatherProvider.call.
+    private static final String KEY_LOCATIONS = WeatherContract.PATH_LOCATION;
+    private static final String KEY_WEATHER = WeatherContract.PATH_WEATHER;
+    private static final String KEY_HOURLY = WeatherContract.PATH_HOURLY;
+
+    final ArrayList<ContentValues> mLocations = new ArrayList<ContentValues>();
+    final WeatherBatch mWeather;
+    final HourlyBatch mHourly;
+
+    public LocationForecasts() {
+        this(new WeatherBatch(0), new HourlyBatch(0));
+    }
+
+    private LocationForecasts(WeatherBatch weather, HourlyBatch hourly) {
+        mWeather = weather;
+        mHourly = hourly;
+    }
+
+    public int size() {
+        return mLocations.size();
+    }
+
+    /**
+     * Adds a location along with its weather and hourly forecasts.  The location key of their
+     * rows is ignored: the rows are stored for the location.
+     */
+    public void add(String locationSetting, String cityName, double latitude, double longitude,
+                    WeatherBatch weather, HourlyBatch hourly) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, latitude);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, longitude);
+        int index = mLocations.size();
+        mLocations.add(locationValues);
+
+        int start = mWeather.size();
+        mWeather.addAll(weather);
+        Arrays.fill(mWeather.mLocationIds, start, mWeather.size(), index);
+
+        start = mHourly.size();
+        mHourly.addAll(hourly);
+        Arrays.fill(mHourly.mLocationIds, start, mHourly.size(), index);
+    }
+
+    /**
+     * Stores the locations and their forecasts through the weather provider, in a single
+     * transaction, and returns the number of weather and hourly rows stored.  Locations that
+     * are already stored are kept.  Uses the columnar fast path where the platform supports
+     * {@link ContentResolver#call}, and falls back to an applyBatch of one operation per row
+     * otherwise.
+     */
+    public int store(ContentResolver resolver)
+            throws RemoteException, OperationApplicationException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return callStore(resolver);
+        }
+        return applyBatch(resolver);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int callStore(ContentResolver resolver) {
+        Bundle result = resolver.call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_STORE_FORECASTS, null, toBundle());
+        return result == null ? 0 : result.getInt(WeatherBatch.KEY_COUNT);
+    }
+
+    /**
+     * Inserts each location first (inserting a known location returns the stored one), and
+     * its rows after it, referring to it with a back reference.
+     */
+    private int applyBatch(ContentResolver resolver)
+            throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        int[] locationIndexes = new int[mLocations.size()];
+        for (int i = 0; i < mLocations.size(); i++) {
+            locationIndexes[i] = operations.size();
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(mLocations.get(i))
+                    .build());
+        }
+
+        ContentValues[] weatherValues = mWeather.toContentValues();
+        for (int i = 0; i < weatherValues.length; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues[i])
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY,
+                            locationIndexes[(int) mWeather.mLocationIds[i]])
+                    .build());
+        }
+        ContentValues[] hourlyValues = mHourly.toContentValues();
+        for (int i = 0; i < hourlyValues.length; i++) {
+            operations.add(ContentProviderOperation.newInsert(HourlyEntry.CONTENT_URI)
+                    .withValues(hourlyValues[i])
+                    .withValueBackReference(HourlyEntry.COLUMN_LOC_KEY,
+                            locationIndexes[(int) mHourly.mLocationIds[i]])
+                    .build());
+        }
+
+        resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        return weatherValues.length + hourlyValues.length;
+    }
+
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putParcelableArrayList(KEY_LOCATIONS, mLocations);
+        bundle.putBundle(KEY_WEATHER, mWeather.toBundle());
+        bundle.putBundle(KEY_HOURLY, mHourly.toBundle());
+        return bundle;
+    }
+
+    /**
+     * @return the forecasts sent by {@link #toBundle()}, or null if the bundle doesn't hold
+     * them.
+     */
+    static LocationForecasts fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+        ArrayList<ContentValues> locations = bundle.getParcelableArrayList(KEY_LOCATIONS);
+        WeatherBatch weather = WeatherBatch.fromBundle(bundle.getBundle(KEY_WEATHER));
+        HourlyBatch hourly = HourlyBatch.fromBundle(bundle.getBundle(KEY_HOURLY));
+        if (locations == null || weather == null || hourly == null) {
+            return null;
+        }
+        LocationForecasts forecasts = new LocationForecasts(weather, hourly);
+        forecasts.mLocations.addAll(locations);
+        return forecasts;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+
+/**
+ * Maps location settings to the _id of their row in the location table, so that the provider
+ * looks a location up once instead of on every query and every sync.
+ *
+ * Locations are only added by the provider, which {@link #put}s them as it inserts them.  It
+ * must {@link #invalidate()} the cache once an update or delete of locations is committed,
+ * and when a transaction that inserted locations is rolled back.
+ */
+class LocationIdCache {
+
+    private final HashMap<String, Long> mIds = new HashMap<String, Long>();
+
+    // Incremented by every invalidation, so that a lookup that raced with a write isn't cached.
+    private long mGeneration;
+
+    /**
+     * @return the _id of the location, or -1 if it isn't stored.
+     */
+    long get(SQLiteDatabase db, String locationSetting) {
+        long generation;
+        synchronized (this) {
+            Long id = mIds.get(locationSetting);
+            if (id != null) {
+                return id;
+            }
+            generation = mGeneration;
+        }
+
+        // The lookup runs outside the lock: before Honeycomb it may wait for the transaction
+        // of a writer, which may itself be waiting for the lock.
+        long id = query(db, locationSetting);
+        if (id != -1) {
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mIds.put(locationSetting, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the _id of the location if it is cached, or -1.
+     */
+    synchronized long peek(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    synchronized void put(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    synchronized void invalidate() {
+        mGeneration++;
+        mIds.clear();
+    }
+
+    private static long query(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
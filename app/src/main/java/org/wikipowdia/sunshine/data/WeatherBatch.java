@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.List;
+
+/**
+ * A column oriented batch of weather rows: one primitive array per column of the weather
+ * table instead of one {@link ContentValues} per row.  Filling one doesn't allocate per row,
+ * and it crosses the provider boundary as a handful of arrays in a {@link Bundle}.
+ *
+ * @see #bulkInsert(ContentResolver)
+ */
+public class WeatherBatch extends ColumnBatch {
+
+    // The columns of the weather table a batch carries, i.e. all but _id, in the order of
+    // getColumns().
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DAY,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    long[] mLocationIds;
+    int[] mDays;
+    String[] mShortDescs;
+    int[] mWeatherIds;
+    double[] mMinTemps;
+    double[] mMaxTemps;
+    double[] mHumidities;
+    double[] mPressures;
+    double[] mWindSpeeds;
+    double[] mDegrees;
+
+    public WeatherBatch(int capacity) {
+        super(COLUMNS);
+        capacity = Math.max(capacity, 1);
+        useColumns(new Object[] {
+                new long[capacity],
+                new int[capacity],
+                new String[capacity],
+                new int[capacity],
+                new double[capacity],
+                new double[capacity],
+                new double[capacity],
+                new double[capacity],
+                new double[capacity],
+                new double[capacity]
+        });
+    }
+
+    @Override
+    Object[] getColumns() {
+        return new Object[] {
+                mLocationIds, mDays, mShortDescs, mWeatherIds, mMinTemps, mMaxTemps,
+                mHumidities, mPressures, mWindSpeeds, mDegrees
+        };
+    }
+
+    @Override
+    void setColumns(Object[] columns) {
+        mLocationIds = (long[]) columns[0];
+        mDays = (int[]) columns[1];
+        mShortDescs = (String[]) columns[2];
+        mWeatherIds = (int[]) columns[3];
+        mMinTemps = (double[]) columns[4];
+        mMaxTemps = (double[]) columns[5];
+        mHumidities = (double[]) columns[6];
+        mPressures = (double[]) columns[7];
+        mWindSpeeds = (double[]) columns[8];
+        mDegrees = (double[]) columns[9];
+    }
+
+    public void add(long locationId, int day, String shortDesc, int weatherId,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        ensureCapacity(mSize + 1);
+        int i = mSize++;
+        mLocationIds[i] = locationId;
+        mDays[i] = day;
+        mShortDescs[i] = shortDesc;
+        mWeatherIds[i] = weatherId;
+        mMinTemps[i] = minTemp;
+        mMaxTemps[i] = maxTemp;
+        mHumidities[i] = humidity;
+        mPressures[i] = pressure;
+        mWindSpeeds[i] = windSpeed;
+        mDegrees[i] = degrees;
+    }
+
+    public void addAll(WeatherBatch other) {
+        appendAll(other);
+    }
+
+    public long getLocationId(int i) {
+        return mLocationIds[i];
+    }
+
+    /**
+     * @return the date of row i, as a number of days since the epoch.
+     * @see WeatherContract#getDbDateFromDay(int)
+     */
+    public int getDay(int i) {
+        return mDays[i];
+    }
+
+    public String getShortDesc(int i) {
+        return mShortDescs[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    /**
+     * Stores the batch through the weather provider, in a single transaction, and returns the
+     * number of rows stored.
+     */
+    public int bulkInsert(ContentResolver resolver) {
+        return bulkInsert(resolver, WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_WEATHER);
+    }
+
+    /**
+     * @return the batch sent by {@link #toBundle()}, or null if the bundle doesn't hold one.
+     */
+    static WeatherBatch fromBundle(Bundle bundle) {
+        WeatherBatch batch = new WeatherBatch(0);
+        return batch.readBundle(bundle) ? batch : null;
+    }
+
+    /**
+     * Moves the complete rows of {@code values} into a batch.  Rows that miss one of the
+     * weather columns, or carry extra ones, can't be represented and are added to
+     * {@code others} as they are.  The date of a row may be given either as a day number
+     * ({@link WeatherEntry#COLUMN_DAY}) or as text ({@link WeatherEntry#COLUMN_DATETEXT}).
+     */
+    static WeatherBatch fromContentValues(ContentValues[] values, List<ContentValues> others) {
+        WeatherBatch batch = new WeatherBatch(values.length);
+        for (ContentValues value : values) {
+            if (value.size() != COLUMNS.length ||
+                    value.getAsLong(WeatherEntry.COLUMN_LOC_KEY) == null ||
+                    (value.getAsInteger(WeatherEntry.COLUMN_DAY) == null &&
+                            value.getAsString(WeatherEntry.COLUMN_DATETEXT) == null) ||
+                    value.getAsString(WeatherEntry.COLUMN_SHORT_DESC) == null ||
+                    value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID) == null ||
+                    value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP) == null ||
+                    value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) == null ||
+                    value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY) == null ||
+                    value.getAsDouble(WeatherEntry.COLUMN_PRESSURE) == null ||
+                    value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED) == null ||
+                    value.getAsDouble(WeatherEntry.COLUMN_DEGREES) == null) {
+                others.add(value);
+                continue;
+            }
+            Integer day = value.getAsInteger(WeatherEntry.COLUMN_DAY);
+            if (day == null) {
+                day = WeatherContract.getDayFromDbDate(
+                        value.getAsString(WeatherEntry.COLUMN_DATETEXT));
+            }
+            batch.add(value.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                    day,
+                    value.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Coalesces the content change notifications of the weather provider.  The Uris changed
+ * within a short window are collected and notified once each when it closes, so a sync
+ * writing many rows makes the loaders requery once instead of once per write.
+ *
+ * A notification reaches the observers of the Uri and of all its descendants, so a pending
+ * Uri is left out when one of its ancestors is pending too.  Query parameters don't take part
+ * in the matching of observers and are dropped.
+ */
+class WeatherChangeNotifier {
+
+    // Long enough to gather the writes of one sync, short enough not to be noticed.
+    static final long WINDOW_MILLIS = 100;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+    private final HashSet<Uri> mPendingUris = new HashSet<Uri>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    WeatherChangeNotifier(ContentResolver resolver, Looper looper) {
+        mResolver = resolver;
+        mHandler = new Handler(looper);
+    }
+
+    void notifyChange(Uri uri) {
+        notifyChange(Collections.singleton(uri));
+    }
+
+    /**
+     * Adds Uris to the pending notifications.  The first Uri added opens the window, later
+     * ones join it, so no notification waits longer than {@link #WINDOW_MILLIS}.
+     */
+    void notifyChange(Collection<Uri> uris) {
+        synchronized (mLock) {
+            boolean scheduled = !mPendingUris.isEmpty();
+            for (Uri uri : uris) {
+                mPendingUris.add(uri.buildUpon().clearQuery().build());
+            }
+            if (!scheduled && !mPendingUris.isEmpty()) {
+                mHandler.postDelayed(mFlush, WINDOW_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending notifications now.
+     */
+    void flush() {
+        Uri[] uris;
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mFlush);
+            uris = mPendingUris.toArray(new Uri[mPendingUris.size()]);
+            mPendingUris.clear();
+        }
+        for (Uri uri : uris) {
+            if (!hasAncestorIn(uri, uris)) {
+                mResolver.notifyChange(uri, null);
+            }
+        }
+    }
+
+    private static boolean hasAncestorIn(Uri uri, Uri[] uris) {
+        for (Uri other : uris) {
+            if (isAncestor(other, uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size() &&
+                ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+}
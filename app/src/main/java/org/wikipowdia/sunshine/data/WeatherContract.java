@@ -19,9 +19,8 @@ import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -45,38 +44,166 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
 
-    // Format used for storing dates in the database.  ALso used for converting those strings
-    // back into date objects for comparison/processing.
+    // Provider method (see ContentResolver#call) storing a WeatherBatch sent as a Bundle.
+    // Use WeatherBatch#bulkInsert rather than calling it directly.
+    public static final String METHOD_BULK_INSERT_WEATHER = "bulkInsertWeather";
+
+    // Provider method deleting the weather of the days before the one given as argument.
+    // Use WeatherRetention#purge rather than calling it directly.
+    public static final String METHOD_PURGE_WEATHER = "purgeWeather";
+
+    // Provider method storing an HourlyBatch sent as a Bundle.
+    // Use HourlyBatch#bulkInsert rather than calling it directly.
+    public static final String METHOD_BULK_INSERT_HOURLY = "bulkInsertHourly";
+
+    // Provider method storing LocationForecasts sent as a Bundle.
+    // Use LocationForecasts#store rather than calling it directly.
+    public static final String METHOD_STORE_FORECASTS = "storeForecasts";
+
+    // Format of the dates exchanged with the provider, in URIs and in the COLUMN_DATETEXT
+    // column.  Also used for converting those strings back into date objects for
+    // comparison/processing.  The database itself stores days (see WeatherEntry.COLUMN_DAY).
     public static final String DATE_FORMAT = "yyyyMMdd";
 
+    private static final long HOUR_IN_MILLIS = 60L * 60 * 1000;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
     /**
      * Converts Date class to a string representation, used for easy comparison and database lookup.
      * @param date The input date
      * @return a DB-friendly representation of the date, using the format defined in DATE_FORMAT.
      */
     public static String getDbDateString(Date date){
-        // Because the API returns a unix timestamp (measured in seconds),
-        // it must be converted to milliseconds in order to be converted to valid date.
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.format(date);
+        return getDbDateFromDay(getDay(date));
     }
 
     /**
      * Converts a dateText to a long Unix time representation
      * @param dateText the input date string
-     * @return the Date object
+     * @return the Date object, at midnight local time, or null if dateText isn't a valid date
      */
     public static Date getDateFromDb(String dateText) {
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(DATE_FORMAT);
         try {
-            return dbDateFormat.parse(dateText);
-        } catch ( ParseException e ) {
+            return getDateFromDay(getDayFromDbDate(dateText));
+        } catch (IllegalArgumentException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * @return the start of a day given as a number of days since 1970-01-01, at midnight
+     * local time.
+     */
+    public static Date getDateFromDay(int day) {
+        long utcMillis = day * DAY_IN_MILLIS;
+        TimeZone timeZone = TimeZone.getDefault();
+        return new Date(utcMillis - timeZone.getOffset(utcMillis - timeZone.getOffset(utcMillis)));
+    }
+
+    /**
+     * @return the local calendar day of the date, as a number of days since 1970-01-01.
+     */
+    public static int getDay(Date date) {
+        return getDay(date.getTime());
+    }
+
+    /**
+     * @return the local calendar day of a time in milliseconds since the epoch, as a number of
+     * days since 1970-01-01.
+     */
+    public static int getDay(long millis) {
+        return getDay(millis, TimeZone.getDefault());
+    }
+
+    /**
+     * @return the calendar day in {@code timeZone} of a time in milliseconds since the epoch, as
+     * a number of days since 1970-01-01.
+     */
+    public static int getDay(long millis, TimeZone timeZone) {
+        millis += timeZone.getOffset(millis);
+        // Round towards negative infinity, for dates before the epoch.
+        return (int) (millis >= 0 ? millis / DAY_IN_MILLIS : (millis + 1) / DAY_IN_MILLIS - 1);
+    }
+
+    /**
+     * Converts a date in the DATE_FORMAT format to a number of days since 1970-01-01, without
+     * going through a SimpleDateFormat.
+     * @throws IllegalArgumentException if dateText isn't in the DATE_FORMAT format
+     */
+    public static int getDayFromDbDate(String dateText) {
+        if (dateText == null || dateText.length() != 8) {
+            throw new IllegalArgumentException("Invalid date: " + dateText);
+        }
+        int value = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = dateText.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid date: " + dateText);
+            }
+            value = value * 10 + digit;
+        }
+        int year = value / 10000;
+        int month = value / 100 % 100;
+        int dayOfMonth = value % 100;
+        if (month < 1 || month > 12 || dayOfMonth < 1 || dayOfMonth > 31) {
+            throw new IllegalArgumentException("Invalid date: " + dateText);
+        }
+
+        // Days from civil date, counting years from March so that the leap day comes last.
+        if (month <= 2) {
+            year--;
+        }
+        int era = year / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Converts a number of days since 1970-01-01 to a date in the DATE_FORMAT format, without
+     * going through a SimpleDateFormat.
+     */
+    public static String getDbDateFromDay(int day) {
+        int date = getYearMonthDay(day);
+        int year = date / 10000;
+        int month = date / 100 % 100;
+        int dayOfMonth = date % 100;
+
+        char[] chars = new char[8];
+        chars[0] = (char) ('0' + year / 1000 % 10);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        chars[2] = (char) ('0' + year / 10 % 10);
+        chars[3] = (char) ('0' + year % 10);
+        chars[4] = (char) ('0' + month / 10);
+        chars[5] = (char) ('0' + month % 10);
+        chars[6] = (char) ('0' + dayOfMonth / 10);
+        chars[7] = (char) ('0' + dayOfMonth % 10);
+        return new String(chars);
+    }
+
+    /**
+     * Converts a number of days since 1970-01-01 to its calendar date, as the number
+     * year * 10000 + month * 100 + day of month, month and day counting from 1.
+     */
+    public static int getYearMonthDay(int day) {
+        // Civil date from days, the inverse of getDayFromDbDate.
+        int shifted = day + 719468;
+        int era = (shifted >= 0 ? shifted : shifted - 146096) / 146097;
+        int dayOfEra = shifted - era * 146097;
+        int yearOfEra =
+                (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + dayOfMonth;
+    }
+
     /* Inner class that defines the table contents of the location table */
     public static final class LocationEntry implements BaseColumns {
 
@@ -124,7 +251,12 @@ public class WeatherContract {
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as Text with format yyyy-MM-dd
+        // Date, stored as the number of days since 1970-01-01, so that date ranges are integer
+        // comparisons on the (location_id, day) index.
+        public static final String COLUMN_DAY = "day";
+        // Date as text with format yyyyMMdd.  Not stored: the provider derives it from
+        // COLUMN_DAY in query results, and converts it to COLUMN_DAY in inserts and updates.
+        // Use COLUMN_DAY in selections and sort orders.
         public static final String COLUMN_DATETEXT = "date";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
@@ -180,4 +312,82 @@ public class WeatherContract {
             return uri.getQueryParameter(COLUMN_DATETEXT);
         }
     }
+
+    /* Inner class that defines the table contents of the hourly table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        // The 3-hourly forecast: one row per location and forecast time, about 8 times as
+        // many rows as the weather table.
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Time of the forecast, as the number of hours since 1970-01-01 UTC.  Rows are keyed
+        // and range queried by (location_id, hour).
+        public static final String COLUMN_HOUR = "hour";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API, e.g "Clear".
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // Temperature at the time of the forecast (stored as a float)
+        public static final String COLUMN_TEMP = "temp";
+        // Same units as the weather table.
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithStartHour(String locationSetting, long hour) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_HOUR, Long.toString(hour)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static String getStartHourFromUri(Uri uri) {
+            return uri.getQueryParameter(COLUMN_HOUR);
+        }
+
+        /**
+         * @return the hour of the date, as a number of hours since 1970-01-01 UTC.
+         */
+        public static long getHour(Date date) {
+            return getHour(date.getTime());
+        }
+
+        /**
+         * @return the hour of a time in milliseconds since the epoch, as a number of hours since
+         * 1970-01-01 UTC.
+         */
+        public static long getHour(long millis) {
+            // Round towards negative infinity, for dates before the epoch.
+            return millis >= 0 ? millis / HOUR_IN_MILLIS : (millis + 1) / HOUR_IN_MILLIS - 1;
+        }
+
+        /**
+         * @return the hour in which a day, given as a number of days since 1970-01-01, starts
+         * at midnight local time, as a number of hours since 1970-01-01 UTC.
+         */
+        public static long getFirstHourOfDay(int day) {
+            return getHour(getDateFromDay(day));
+        }
+    }
 }
\ No newline at end of file
@@ -15,10 +15,15 @@
  */
 package org.wikipowdia.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
 
@@ -27,13 +32,55 @@ import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must add a step to WeatherMigrations, which
+    // increments the database version.
+    private static final int DATABASE_VERSION = WeatherMigrations.LATEST_VERSION;
 
     public static final String DATABASE_NAME = "weather.db";
 
+    // Pages of cache of the primary connection, which onConfigure and onOpen are called on.
+    // The whole database is a few hundred rows, so this keeps it in memory.  The read-only
+    // connections the framework adds to the pool in WAL mode keep the default cache size.
+    private static final int CACHE_SIZE_PAGES = 256;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With a write-ahead log, readers don't wait for the sync adapter's write transactions:
+        // they see the last committed state while the writer appends to the log.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Only called from Jelly Bean on, before onCreate, onUpgrade and onOpen.
+        configure(db, true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            boolean writeAheadLogging = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB &&
+                    !db.isReadOnly() && enableWriteAheadLogging(db);
+            configure(db, writeAheadLogging);
+        }
+    }
+
+    private static void configure(SQLiteDatabase db, boolean writeAheadLogging) {
+        db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_PAGES);
+        if (writeAheadLogging) {
+            // In WAL mode NORMAL only syncs at checkpoints.  A crash can't corrupt the
+            // database, at worst it loses the last sync, which is fetched again anyway.
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean enableWriteAheadLogging(SQLiteDatabase db) {
+        return db.enableWriteAheadLogging();
     }
 
     @Override
@@ -59,7 +106,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATETEXT + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_DAY + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
@@ -76,24 +123,67 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATETEXT + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Its index, location first, is also the one every query by location and
+                // date range goes through.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DAY + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                // Not AUTOINCREMENT: the rows are ordered by their hour, and this spares the
+                // sqlite_sequence update of every insert.
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HOUR + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                // One forecast per location and hour.  Like the weather table, the index of
+                // the constraint serves the queries by location and time range.
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_HOUR + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        try {
+            WeatherMigrations.upgrade(sqLiteDatabase, oldVersion, newVersion);
+        } catch (RuntimeException e) {
+            // This database is only a cache for online data, so if it can't be migrated the
+            // fallback is to discard the data and start over, rather than failing to open.
+            Log.e(LOG_TAG, "Error migrating from version " + oldVersion + ", recreating", e);
+            recreate(sqLiteDatabase);
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Older versions of the app don't know the newer schemas.
+        recreate(sqLiteDatabase);
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
+        // Also drops whatever a failed migration step left behind.
+        Cursor cursor = sqLiteDatabase.rawQuery("SELECT name FROM sqlite_master " +
+                "WHERE type = 'table' AND name NOT LIKE 'sqlite_%' " +
+                "AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
         onCreate(sqLiteDatabase);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The ordered schema migrations of the weather database.  Step N upgrades a database from
+ * version N to version N + 1 while keeping the stored locations and forecasts, so a schema
+ * change doesn't force every device into a full resync.
+ *
+ * To change the schema, update {@link WeatherDbHelper#onCreate} and append a step that brings
+ * the previous version to the same schema.  Steps are frozen once released: they spell out
+ * their table and column names instead of using the contract constants, since those describe
+ * the latest schema only.
+ */
+class WeatherMigrations {
+
+    interface Step {
+        void apply(SQLiteDatabase db);
+    }
+
+    private static final Step[] STEPS = {
+            null, // There is no version 0.
+
+            // 1 -> 2: the weather date is stored as an integer day number instead of
+            // "yyyyMMdd" text, and keyed by (location_id, day).
+            new Step() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE weather RENAME TO weather_v1");
+                    db.execSQL("CREATE TABLE weather (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, " +
+                            "day INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, " +
+                            "weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, " +
+                            "max REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, day) ON CONFLICT REPLACE);");
+                    // julianday() counts from noon, 4714 BC; 2440587.5 is 1970-01-01 at midnight.
+                    db.execSQL("INSERT INTO weather (_id, location_id, day, short_desc, " +
+                            "weather_id, min, max, humidity, pressure, wind, degrees) " +
+                            "SELECT _id, location_id, " +
+                            "CAST(julianday(substr(date, 1, 4) || '-' || substr(date, 5, 2) || " +
+                            "'-' || substr(date, 7, 2)) - 2440587.5 AS INTEGER), short_desc, " +
+                            "weather_id, min, max, humidity, pressure, wind, degrees " +
+                            "FROM weather_v1");
+                    db.execSQL("DROP TABLE weather_v1");
+                }
+            },
+
+            // 2 -> 3: adds the hourly forecast table.
+            new Step() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE hourly (" +
+                            "_id INTEGER PRIMARY KEY," +
+                            "location_id INTEGER NOT NULL, " +
+                            "hour INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "temp REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, hour) ON CONFLICT REPLACE);");
+                }
+            },
+    };
+
+    /**
+     * The version the last step upgrades to.
+     */
+    static final int LATEST_VERSION = STEPS.length;
+
+    /**
+     * Runs the steps from {@code oldVersion} up to {@code newVersion}, in order.  Must be
+     * called inside a transaction, as {@link android.database.sqlite.SQLiteOpenHelper#onUpgrade}
+     * is, so that a failing step leaves the database at {@code oldVersion}.
+     *
+     * @throws IllegalArgumentException if there is no step for one of the versions
+     */
+    static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 1 || newVersion > LATEST_VERSION) {
+            throw new IllegalArgumentException(
+                    "No migration from version " + oldVersion + " to " + newVersion);
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            STEPS[version].apply(db);
+        }
+    }
+}
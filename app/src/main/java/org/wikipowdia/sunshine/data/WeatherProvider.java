@@ -15,30 +15,114 @@
  */
 package org.wikipowdia.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherUpserter mWeatherUpserter;
+    private WeatherChangeNotifier mChangeNotifier;
+    private final WeatherQueryCache mQueryCache = new WeatherQueryCache();
+    private final LocationIdCache mLocationIds = new LocationIdCache();
+    // The Uris changed by the applyBatch running on each thread, if any.
+    private final ThreadLocal<Set<Uri>> mBatchChangedUris = new ThreadLocal<Set<Uri>>();
 
     private static final int WEATHER = 100;
     private static final int WEATHER_WITH_LOCATION = 101;
     private static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    private static final int HOURLY = 200;
+    private static final int HOURLY_WITH_LOCATION = 201;
     private static final int LOCATION = 300;
     private static final int LOCATION_ID = 301;
 
+    // The columns returned when a weather query doesn't ask for specific ones.
+    private static final String[] sWeatherColumns = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DAY,
+            WeatherContract.WeatherEntry.COLUMN_DATETEXT,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final String[] sLocationColumns = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final String[] sWeatherWithLocationColumns;
+
+    // The date is stored as a day number, and handed out in the text format of the contract.
+    private static final String sDateTextExpression = "strftime('%Y%m%d', " +
+            WeatherContract.WeatherEntry.TABLE_NAME + "." +
+            WeatherContract.WeatherEntry.COLUMN_DAY + " * 86400, 'unixepoch')";
+
+    private static final SQLiteQueryBuilder sWeatherQueryBuilder;
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
+        HashMap<String, String> weatherProjectionMap = new HashMap<String, String>();
+        for (String column : sWeatherColumns) {
+            String qualified = WeatherContract.WeatherEntry.TABLE_NAME + "." + column;
+            String stored = WeatherContract.WeatherEntry.COLUMN_DATETEXT.equals(column) ?
+                    sDateTextExpression + " AS " + column : qualified;
+            weatherProjectionMap.put(column, stored);
+            weatherProjectionMap.put(qualified, stored);
+        }
+
+        sWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
+        sWeatherQueryBuilder.setProjectionMap(weatherProjectionMap);
+
+        HashMap<String, String> weatherWithLocationProjectionMap =
+                new HashMap<String, String>(weatherProjectionMap);
+        String locationId =
+                WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID;
+        weatherWithLocationProjectionMap.put(locationId, locationId);
+        for (String column : sLocationColumns) {
+            String qualified = WeatherContract.LocationEntry.TABLE_NAME + "." + column;
+            weatherWithLocationProjectionMap.put(column, qualified);
+            weatherWithLocationProjectionMap.put(qualified, qualified);
+        }
+
+        sWeatherWithLocationColumns = new String[sWeatherColumns.length + sLocationColumns.length];
+        System.arraycopy(sWeatherColumns, 0, sWeatherWithLocationColumns, 0,
+                sWeatherColumns.length);
+        System.arraycopy(sLocationColumns, 0, sWeatherWithLocationColumns,
+                sWeatherColumns.length, sLocationColumns.length);
+
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
         sWeatherByLocationSettingQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
@@ -47,38 +131,44 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+        sWeatherByLocationSettingQueryBuilder.setProjectionMap(weatherWithLocationProjectionMap);
     }
 
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATETEXT + " >= ? ";
+    // The location setting is resolved to the location _id beforehand, so the weather rows are
+    // found through the (location_id, day) index without going through the location table.
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " >= ? ";
 
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATETEXT + " = ? ";
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " = ? ";
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = mLocationIds.get(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
         String startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
         String selection;
 
         if (startDate == null) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{Long.toString(locationId)};
         } else {
-            selectionArgs = new String[]{locationSetting, startDate};
-            selection = sLocationSettingWithStartDateSelection;
+            int startDay = WeatherContract.getDayFromDbDate(startDate);
+            selectionArgs = new String[]{Long.toString(locationId), Integer.toString(startDay)};
+            selection = sLocationIdWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
+        return sWeatherByLocationSettingQueryBuilder.query(db,
+                projection == null ? sWeatherWithLocationColumns : projection,
                 selection,
                 selectionArgs,
                 null,
@@ -89,13 +179,77 @@ public class WeatherProvider extends ContentProvider {
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        String date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = mLocationIds.get(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        int day = WeatherContract.getDayFromDbDate(
+                WeatherContract.WeatherEntry.getDateFromUri(uri));
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return sWeatherByLocationSettingQueryBuilder.query(db,
+                projection == null ? sWeatherWithLocationColumns : projection,
+                sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Integer.toString(day)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /**
+     * Serves the weather by location queries from the {@link WeatherQueryCache}, running them
+     * only when the result isn't cached.
+     */
+    private Cursor getCachedWeatherByLocationSetting(
+            Uri uri, String[] projection, String sortOrder) {
+        // Inside an applyBatch the query may see writes that are not committed yet.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                || mBatchChangedUris.get() != null) {
+            return queryWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+        String key = WeatherQueryCache.getKey(uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor == null) {
+            long generation = mQueryCache.getGeneration();
+            cursor = mQueryCache.put(key, generation,
+                    queryWeatherByLocationSetting(uri, projection, sortOrder));
+        }
+        return cursor;
+    }
+
+    private Cursor queryWeatherByLocationSetting(
+            Uri uri, String[] projection, String sortOrder) {
+        return sUriMatcher.match(uri) == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+    }
+
+    private static final String sHourlyLocationIdSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? ";
+    private static final String sHourlyLocationIdWithStartHourSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_HOUR + " >= ? ";
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = mLocationIds.get(db,
+                WeatherContract.HourlyEntry.getLocationSettingFromUri(uri));
+        String startHour = WeatherContract.HourlyEntry.getStartHourFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startHour == null) {
+            selection = sHourlyLocationIdSelection;
+            selectionArgs = new String[]{Long.toString(locationId)};
+        } else {
+            selection = sHourlyLocationIdWithStartHourSelection;
+            selectionArgs = new String[]{Long.toString(locationId), startHour};
+        }
+
+        return db.query(WeatherContract.HourlyEntry.TABLE_NAME,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, date},
+                selection,
+                selectionArgs,
                 null,
                 null,
                 sortOrder
@@ -117,6 +271,9 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/*", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#", LOCATION_ID);
 
@@ -126,6 +283,8 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mChangeNotifier = new WeatherChangeNotifier(getContext().getContentResolver(),
+                Looper.getMainLooper());
         return true;
     }
 
@@ -138,19 +297,32 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getCachedWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
             // "weather"
             case WEATHER: {
+                retCursor = sWeatherQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                        projection == null ? sWeatherColumns : projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
@@ -207,6 +379,10 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
             case LOCATION_ID:
@@ -221,18 +397,58 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        Uri changedUri = uri;
 
         switch (match) {
             case WEATHER: {
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                // A complete row goes through the upserter, so storing a day again only
+                // writes it if it changed, and keeps its _id.
+                List<ContentValues> others = new ArrayList<ContentValues>(1);
+                WeatherBatch batch =
+                        WeatherBatch.fromContentValues(new ContentValues[]{values}, others);
+                long _id;
+                boolean changed = true;
+                if (batch.size() == 1) {
+                    WeatherUpserter upserter = getWeatherUpserter(db);
+                    WeatherUpserter.Result result;
+                    beginTransaction(db);
+                    try {
+                        result = upserter.upsert(batch);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    _id = result.lastId;
+                    changed = result.changed > 0;
+                } else {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            toStoredWeatherValues(values));
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changedUri = changed ? getWeatherLocationUri(db,
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) : null;
+                break;
+            }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                // The location setting is UNIQUE ON CONFLICT IGNORE: inserting a known
+                // location returns the existing row, so that a batch can refer to it.
+                long _id = insertLocation(db, values);
+                if (_id == -1) {
+                    _id = mLocationIds.get(db, values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+                    changedUri = null;
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -242,7 +458,9 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (changedUri != null) {
+            notifyChange(changedUri);
+        }
         return returnUri;
     }
 
@@ -256,16 +474,21 @@ public class WeatherProvider extends ContentProvider {
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                mLocationIds.invalidate();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (selection == null || rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -279,45 +502,417 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER:
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                        toStoredWeatherValues(values), selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                mLocationIds.invalidate();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                List<ContentValues> others = new ArrayList<ContentValues>();
+                WeatherBatch batch = WeatherBatch.fromContentValues(values, others);
+                return bulkInsertWeather(batch, others);
+            case HOURLY:
+                return bulkInsertHourly(values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
+
+    /**
+     * Applies the operations in a single transaction: either all of them are committed or
+     * none is.  The content changes are notified once, after the commit, instead of once per
+     * operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changedUris = new HashSet<Uri>();
+        ContentProviderResult[] results = null;
+        beginTransaction(db);
+        mBatchChangedUris.set(changedUris);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChangedUris.remove();
+            if (results == null) {
+                // Forget the locations inserted by the rolled back operations.
+                mLocationIds.invalidate();
+            }
+        }
+        if (!changedUris.isEmpty()) {
+            mQueryCache.invalidate();
+            invalidateLocationIds(changedUris);
+        }
+        mChangeNotifier.notifyChange(changedUris);
+        return results;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_BULK_INSERT_WEATHER.equals(method)) {
+            WeatherBatch batch = WeatherBatch.fromBundle(extras);
+            if (batch == null) {
+                throw new IllegalArgumentException("No weather batch in " + extras);
+            }
+            int count = bulkInsertWeather(batch, Collections.<ContentValues>emptyList());
+            Bundle result = new Bundle();
+            result.putInt(WeatherBatch.KEY_COUNT, count);
+            return result;
+        }
+        if (WeatherContract.METHOD_BULK_INSERT_HOURLY.equals(method)) {
+            HourlyBatch batch = HourlyBatch.fromBundle(extras);
+            if (batch == null) {
+                throw new IllegalArgumentException("No hourly batch in " + extras);
+            }
+            int count = bulkInsertHourly(batch);
+            Bundle result = new Bundle();
+            result.putInt(WeatherBatch.KEY_COUNT, count);
+            return result;
+        }
+        if (WeatherContract.METHOD_STORE_FORECASTS.equals(method)) {
+            LocationForecasts forecasts = LocationForecasts.fromBundle(extras);
+            if (forecasts == null) {
+                throw new IllegalArgumentException("No forecasts in " + extras);
+            }
+            int count = storeForecasts(forecasts);
+            Bundle result = new Bundle();
+            result.putInt(WeatherBatch.KEY_COUNT, count);
+            return result;
+        }
+        if (WeatherContract.METHOD_PURGE_WEATHER.equals(method)) {
+            int count = purgeWeather(Integer.parseInt(arg));
+            Bundle result = new Bundle();
+            result.putInt(WeatherBatch.KEY_COUNT, count);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Deletes the weather and the hourly forecasts of the days before {@code firstDay}, then
+     * compacts the database file.
+     */
+    private int purgeWeather(int firstDay) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int weatherCount;
+        int hourlyCount;
+        beginTransaction(db);
+        try {
+            weatherCount = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " < ?",
+                    new String[]{Integer.toString(firstDay)});
+            hourlyCount = db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                    WeatherContract.HourlyEntry.COLUMN_HOUR + " < ?",
+                    new String[]{Long.toString(
+                            WeatherContract.HourlyEntry.getFirstHourOfDay(firstDay))});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (weatherCount > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        if (hourlyCount > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        if (weatherCount + hourlyCount > 0) {
+            WeatherRetention.compact(db);
+        }
+        return weatherCount + hourlyCount;
+    }
+
+    /**
+     * Stores the locations and their forecasts in a single transaction.  The locations are
+     * inserted first, unless they are stored already, so the location key of the rows can be
+     * turned from an index in the batch into the location's _id.  The weather rows of every
+     * location then go through the {@link WeatherUpserter} together, and the hourly rows
+     * through a single compiled insert.
+     */
+    private int storeForecasts(LocationForecasts forecasts) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherUpserter upserter = getWeatherUpserter(db);
+        WeatherBatch weather = forecasts.mWeather;
+        HourlyBatch hourly = forecasts.mHourly;
+        boolean locationsInserted = false;
+        boolean committed = false;
+        int returnCount;
+        List<Uri> changedUris;
+        beginTransaction(db);
+        SQLiteStatement insertHourly = db.compileStatement(HourlyBatch.SQL_INSERT);
+        try {
+            long[] locationIds = new long[forecasts.size()];
+            for (int i = 0; i < locationIds.length; i++) {
+                ContentValues values = forecasts.mLocations.get(i);
+                long _id = insertLocation(db, values);
+                if (_id == -1) {
+                    _id = mLocationIds.get(db, values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+                } else {
+                    locationsInserted = true;
+                }
+                if (_id == -1) {
+                    throw new android.database.SQLException("Failed to insert " + values);
+                }
+                locationIds[i] = _id;
+            }
+            for (int i = 0; i < weather.size(); i++) {
+                weather.mLocationIds[i] = locationIds[(int) weather.mLocationIds[i]];
+            }
+            for (int i = 0; i < hourly.size(); i++) {
+                hourly.mLocationIds[i] = locationIds[(int) hourly.mLocationIds[i]];
+            }
+
+            WeatherUpserter.Result result = upserter.upsert(weather);
+            returnCount = result.stored + hourly.insert(insertHourly);
+            changedUris = getWeatherLocationUris(db, result.changedLocationIds);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            insertHourly.close();
+            db.endTransaction();
+            if (!committed) {
+                // Forget the locations inserted by the rolled back transaction.
+                mLocationIds.invalidate();
+            }
+        }
+        if (locationsInserted) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        for (Uri changedUri : changedUris) {
+            notifyChange(changedUri);
+        }
+        if (hourly.size() > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Inserts a location, unless one with the same location setting is stored already.
+     *
+     * @return the _id of the new location, or -1 if it was stored already.
+     */
+    private long insertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting = values.getAsString(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (mLocationIds.peek(locationSetting) != -1) {
+            return -1;
+        }
+        long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+        if (_id != -1) {
+            mLocationIds.put(locationSetting, _id);
+        }
+        return _id;
+    }
+
+    /**
+     * Stores a batch of hourly rows in a single transaction, binding them one by one to a
+     * single compiled insert.
+     */
+    private int bulkInsertHourly(HourlyBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount;
+        beginTransaction(db);
+        SQLiteStatement insert = db.compileStatement(HourlyBatch.SQL_INSERT);
+        try {
+            returnCount = batch.insert(insert);
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        return returnCount;
+    }
+
+    private int bulkInsertHourly(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        beginTransaction(db);
+        try {
+            for (ContentValues value : values) {
+                if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Stores a batch of weather rows in a single transaction, through the precompiled
+     * statements of the {@link WeatherUpserter}.  Rows that didn't fit in the batch are
+     * inserted the generic way.  Only the loaders of the locations whose rows changed are
+     * notified.
+     */
+    private int bulkInsertWeather(WeatherBatch batch, List<ContentValues> others) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherUpserter upserter = getWeatherUpserter(db);
+        int returnCount;
+        List<Uri> changedUris;
+        beginTransaction(db);
+        try {
+            // Only write the rows that differ from what is stored, and only tell the
+            // loaders to requery if something actually changed.
+            WeatherUpserter.Result result = upserter.upsert(batch);
+            returnCount = result.stored;
+            Set<Long> changedLocationIds = new HashSet<Long>(result.changedLocationIds);
+            for (ContentValues value : others) {
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        toStoredWeatherValues(value));
+                if (_id != -1) {
+                    returnCount++;
+                    changedLocationIds.add(
+                            value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                }
+            }
+            changedUris = getWeatherLocationUris(db, changedLocationIds);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        for (Uri changedUri : changedUris) {
+            notifyChange(changedUri);
+        }
+        return returnCount;
+    }
+
+    /**
+     * @return the Uri observed by the loaders of the location's weather.
+     */
+    private static Uri getWeatherLocationUri(SQLiteDatabase db, Long locationId) {
+        List<Uri> uris = getWeatherLocationUris(db, Collections.singleton(locationId));
+        return uris.isEmpty() ? WeatherContract.WeatherEntry.CONTENT_URI : uris.get(0);
+    }
+
+    private static List<Uri> getWeatherLocationUris(SQLiteDatabase db, Set<Long> locationIds) {
+        List<Uri> uris = new ArrayList<Uri>(locationIds.size());
+        if (locationIds.isEmpty()) {
+            return uris;
+        }
+        if (locationIds.contains(null)) {
+            // Unknown location, only the root Uri covers it.
+            uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+            return uris;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " IN (" +
+                        TextUtils.join(", ", locationIds) + ")",
+                null,
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(cursor.getString(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return uris;
+    }
+
+    /**
+     * Drops the cached query results and notifies a content change through the
+     * {@link WeatherChangeNotifier}, or defers both to the end of the applyBatch running on this
+     * thread.  Must be called once the change has been committed.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChangedUris = mBatchChangedUris.get();
+        if (batchChangedUris != null) {
+            batchChangedUris.add(uri);
+        } else {
+            mQueryCache.invalidate();
+            invalidateLocationIds(Collections.singleton(uri));
+            mChangeNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Drops the cached location ids once a write to the location table has been committed,
+     * since a query may have cached them again while it was running.
+     */
+    private void invalidateLocationIds(Collection<Uri> changedUris) {
+        for (Uri uri : changedUris) {
+            int match = sUriMatcher.match(uri);
+            if (match == LOCATION || match == LOCATION_ID) {
+                mLocationIds.invalidate();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts a transaction that, in WAL mode, doesn't lock out the readers of the loaders.
+     */
+    private static void beginTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            beginTransactionNonExclusive(db);
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void beginTransactionNonExclusive(SQLiteDatabase db) {
+        db.beginTransactionNonExclusive();
+    }
+
+    /**
+     * Clients may give the date of a weather row as text, which is stored as a day number.
+     */
+    private static ContentValues toStoredWeatherValues(ContentValues values) {
+        String dateText = values.getAsString(WeatherContract.WeatherEntry.COLUMN_DATETEXT);
+        if (dateText == null) {
+            return values;
+        }
+        ContentValues storedValues = new ContentValues(values);
+        storedValues.remove(WeatherContract.WeatherEntry.COLUMN_DATETEXT);
+        storedValues.put(WeatherContract.WeatherEntry.COLUMN_DAY,
+                WeatherContract.getDayFromDbDate(dateText));
+        return storedValues;
+    }
+
+    private synchronized WeatherUpserter getWeatherUpserter(SQLiteDatabase db) {
+        // The compiled statements belong to the database they were compiled on.
+        if (mWeatherUpserter == null || !mWeatherUpserter.isFor(db)) {
+            if (mWeatherUpserter != null) {
+                mWeatherUpserter.close();
+            }
+            mWeatherUpserter = new WeatherUpserter(db);
+        }
+        return mWeatherUpserter;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the results of the provider's weather by location queries in memory, so reopening
+ * the app, rotating or restarting a loader doesn't run the weather and location join again.
+ *
+ * Results are keyed by everything that defines them: the Uri (location, start date or day),
+ * the projection and the sort order.  Only the provider writes to the database, so the cache
+ * is exact as long as the provider calls {@link #invalidate()} after each committed write.
+ */
+class WeatherQueryCache {
+
+    // Rows kept across all the cached results.  A location's forecast is about 16 rows.
+    private static final int MAX_ROWS = 256;
+
+    private static class Result {
+        final String[] mColumnNames;
+        final Object[][] mRows;
+
+        Result(String[] columnNames, Object[][] rows) {
+            mColumnNames = columnNames;
+            mRows = rows;
+        }
+    }
+
+    private final LruCache<String, Result> mResults = new LruCache<String, Result>(MAX_ROWS) {
+        @Override
+        protected int sizeOf(String key, Result result) {
+            return Math.max(1, result.mRows.length);
+        }
+    };
+
+    // Incremented by every invalidation, so that a query that raced with a write isn't cached.
+    private long mGeneration;
+
+    static String getKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "\n" + Arrays.toString(projection) + "\n" + sortOrder;
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null if it isn't cached.
+     */
+    Cursor get(String key) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            return null;
+        }
+        return newCursor(result);
+    }
+
+    /**
+     * Call before running the query to {@link #put}.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads and closes the cursor, and caches its rows unless the database was written since
+     * {@code generation}.
+     *
+     * @return a new cursor over the rows.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(String key, long generation, Cursor cursor) {
+        Object[][] rows = new Object[cursor.getCount()][];
+        String[] columnNames = cursor.getColumnNames();
+        try {
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columnNames.length];
+                for (int i = 0; i < row.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            row[i] = null;
+                    }
+                }
+                rows[cursor.getPosition()] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Result result = new Result(columnNames, rows);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+            }
+        }
+        return newCursor(result);
+    }
+
+    private static Cursor newCursor(Result result) {
+        MatrixCursor cursor = new MatrixCursor(result.mColumnNames, result.mRows.length);
+        for (Object[] row : result.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Drops every cached result.  Must be called once a write has been committed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mResults.evictAll();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+
+import org.wikipowdia.sunshine.data.WeatherContract.HourlyEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Date;
+
+/**
+ * Keeps the weather and hourly tables to a window of past days.  Forecasts are read from
+ * today on, so without a purge the rows of the days gone by pile up sync after sync, and the
+ * tables, their indexes and the database file keep growing.
+ *
+ * @see #purge(ContentResolver, int)
+ */
+public class WeatherRetention {
+
+    // Value of PRAGMA auto_vacuum in incremental mode.
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Deletes the weather and hourly forecasts of the days before the last
+     * {@code historyDays} days, through the weather provider, and returns the number of rows
+     * deleted.  Where the platform supports {@link ContentResolver#call}, the provider also
+     * gives the freed space back to the file system.
+     */
+    public static int purge(ContentResolver resolver, int historyDays) {
+        int firstDay = WeatherContract.getDay(new Date()) - historyDays;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return callPurge(resolver, firstDay);
+        }
+        return resolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DAY + " < ?",
+                new String[]{Integer.toString(firstDay)}) +
+                resolver.delete(HourlyEntry.CONTENT_URI, HourlyEntry.COLUMN_HOUR + " < ?",
+                        new String[]{Long.toString(HourlyEntry.getFirstHourOfDay(firstDay))});
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int callPurge(ContentResolver resolver, int firstDay) {
+        Bundle result = resolver.call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_PURGE_WEATHER, Integer.toString(firstDay), null);
+        return result == null ? 0 : result.getInt(WeatherBatch.KEY_COUNT);
+    }
+
+    /**
+     * Truncates the pages freed by deletes off the database file.  Must be called outside of
+     * a transaction.
+     */
+    static void compact(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            // The vacuum mode of an existing database only changes with a full VACUUM.  The
+            // database is a few hundred rows, so this is cheap, and only done once.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return;
+        }
+        // The pragma frees one page per step, so step through all of them.
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wikipowdia.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseIntArray;
+
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a {@link WeatherBatch} by comparing it with what is already stored, instead of
+ * letting the UNIQUE (location_id, day) ON CONFLICT REPLACE constraint delete and re-insert
+ * every row.  New days are inserted, changed days are updated in place (so they keep their
+ * _id) and days that are already up to date aren't touched at all.
+ *
+ * The insert and update statements are compiled once and reused for every row and every
+ * batch, binding the values of the batch's columns directly.  Must be used inside a
+ * transaction on the database it was created for, and closed once it is no longer used.
+ */
+class WeatherUpserter {
+
+    private static final String SQL_INSERT = "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DAY + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+            WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+            WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+            WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+            WeatherEntry.COLUMN_DEGREES + " = ? " +
+            "WHERE " + WeatherEntry._ID + " = ?";
+
+    private static final String SQL_SELECT_STORED = "SELECT " +
+            WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_DAY + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DAY + " BETWEEN ? AND ?";
+
+    // These indices are tied to SQL_SELECT_STORED.
+    private static final int COL_ID = 0;
+    private static final int COL_DAY = 1;
+    private static final int COL_SHORT_DESC = 2;
+    private static final int COL_WEATHER_ID = 3;
+    private static final int COL_MIN_TEMP = 4;
+    private static final int COL_MAX_TEMP = 5;
+    private static final int COL_HUMIDITY = 6;
+    private static final int COL_PRESSURE = 7;
+    private static final int COL_WIND_SPEED = 8;
+    private static final int COL_DEGREES = 9;
+
+    /**
+     * Outcome of one {@link #upsert} call.
+     */
+    static class Result {
+        // Rows that are stored after the call, whether inserted, updated or already current.
+        int stored;
+        // Rows that were inserted or updated.
+        int changed;
+        // _id of the last row of the batch, or -1 if it couldn't be inserted.
+        long lastId = -1;
+        // Locations of the rows that were inserted or updated.
+        final Set<Long> changedLocationIds = new HashSet<Long>();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mInsert;
+    private final SQLiteStatement mUpdate;
+
+    WeatherUpserter(SQLiteDatabase db) {
+        mDb = db;
+        mInsert = db.compileStatement(SQL_INSERT);
+        mUpdate = db.compileStatement(SQL_UPDATE);
+    }
+
+    boolean isFor(SQLiteDatabase db) {
+        return mDb == db;
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    synchronized void close() {
+        mInsert.close();
+        mUpdate.close();
+    }
+
+    /**
+     * The first and last rows of a batch that belong to one location, and the range of days
+     * the location's rows cover.
+     */
+    private static class LocationRows {
+        final int mFirst;
+        int mLast;
+        int mMinDay;
+        int mMaxDay;
+
+        LocationRows(int first, int day) {
+            mFirst = first;
+            mLast = first;
+            mMinDay = day;
+            mMaxDay = day;
+        }
+    }
+
+    synchronized Result upsert(WeatherBatch batch) {
+        Result result = new Result();
+        int size = batch.size();
+
+        // Group the rows by location in one pass, so the stored rows of each location can be
+        // read with a single range query.  next[i] is the following row of the same location,
+        // or -1.
+        int[] next = new int[size];
+        Map<Long, LocationRows> locations = new LinkedHashMap<Long, LocationRows>();
+        for (int i = 0; i < size; i++) {
+            next[i] = -1;
+            int day = batch.mDays[i];
+            LocationRows rows = locations.get(batch.mLocationIds[i]);
+            if (rows == null) {
+                locations.put(batch.mLocationIds[i], new LocationRows(i, day));
+            } else {
+                next[rows.mLast] = i;
+                rows.mLast = i;
+                rows.mMinDay = Math.min(rows.mMinDay, day);
+                rows.mMaxDay = Math.max(rows.mMaxDay, day);
+            }
+        }
+
+        for (Map.Entry<Long, LocationRows> entry : locations.entrySet()) {
+            long locationId = entry.getKey();
+            LocationRows rows = entry.getValue();
+
+            // Served by the (location_id, day) index.
+            Cursor stored = mDb.rawQuery(SQL_SELECT_STORED, new String[]{
+                    Long.toString(locationId), Integer.toString(rows.mMinDay),
+                    Integer.toString(rows.mMaxDay)});
+            try {
+                SparseIntArray positionByDay = new SparseIntArray(stored.getCount());
+                while (stored.moveToNext()) {
+                    positionByDay.put(stored.getInt(COL_DAY), stored.getPosition());
+                }
+
+                for (int i = rows.mFirst; i != -1; i = next[i]) {
+                    long id;
+                    int position = positionByDay.get(batch.mDays[i], -1);
+                    if (position == -1) {
+                        id = insert(batch, i);
+                        if (id != -1) {
+                            result.stored++;
+                            result.changed++;
+                            result.changedLocationIds.add(locationId);
+                        }
+                    } else {
+                        stored.moveToPosition(position);
+                        id = stored.getLong(COL_ID);
+                        if (!isStored(batch, i, stored)) {
+                            update(batch, i, id);
+                            result.changed++;
+                            result.changedLocationIds.add(locationId);
+                        }
+                        result.stored++;
+                    }
+                    if (i == size - 1) {
+                        result.lastId = id;
+                    }
+                }
+            } finally {
+                stored.close();
+            }
+        }
+        return result;
+    }
+
+    private long insert(WeatherBatch batch, int i) {
+        SQLiteStatement statement = mInsert;
+        statement.clearBindings();
+        statement.bindLong(1, batch.mLocationIds[i]);
+        statement.bindLong(2, batch.mDays[i]);
+        ColumnBatch.bindStringOrNull(statement, 3, batch.mShortDescs[i]);
+        statement.bindLong(4, batch.mWeatherIds[i]);
+        statement.bindDouble(5, batch.mMinTemps[i]);
+        statement.bindDouble(6, batch.mMaxTemps[i]);
+        statement.bindDouble(7, batch.mHumidities[i]);
+        statement.bindDouble(8, batch.mPressures[i]);
+        statement.bindDouble(9, batch.mWindSpeeds[i]);
+        statement.bindDouble(10, batch.mDegrees[i]);
+        return statement.executeInsert();
+    }
+
+    private void update(WeatherBatch batch, int i, long id) {
+        SQLiteStatement statement = mUpdate;
+        statement.clearBindings();
+        ColumnBatch.bindStringOrNull(statement, 1, batch.mShortDescs[i]);
+        statement.bindLong(2, batch.mWeatherIds[i]);
+        statement.bindDouble(3, batch.mMinTemps[i]);
+        statement.bindDouble(4, batch.mMaxTemps[i]);
+        statement.bindDouble(5, batch.mHumidities[i]);
+        statement.bindDouble(6, batch.mPressures[i]);
+        statement.bindDouble(7, batch.mWindSpeeds[i]);
+        statement.bindDouble(8, batch.mDegrees[i]);
+        statement.bindLong(9, id);
+        statement.execute();
+    }
+
+    /**
+     * @return true if row i of the batch matches the cursor's current row.
+     */
+    private static boolean isStored(WeatherBatch batch, int i, Cursor stored) {
+        String shortDesc = batch.mShortDescs[i];
+        return (shortDesc == null ? stored.isNull(COL_SHORT_DESC) :
+                        shortDesc.equals(stored.getString(COL_SHORT_DESC))) &&
+                batch.mWeatherIds[i] == stored.getInt(COL_WEATHER_ID) &&
+                batch.mMinTemps[i] == stored.getDouble(COL_MIN_TEMP) &&
+                batch.mMaxTemps[i] == stored.getDouble(COL_MAX_TEMP) &&
+                batch.mHumidities[i] == stored.getDouble(COL_HUMIDITY) &&
+                batch.mPressures[i] == stored.getDouble(COL_PRESSURE) &&
+                batch.mWindSpeeds[i] == stored.getDouble(COL_WIND_SPEED) &&
+                batch.mDegrees[i] == stored.getDouble(COL_DEGREES);
+    }
+}
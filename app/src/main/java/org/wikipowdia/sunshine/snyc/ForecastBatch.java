@@ -0,0 +1,142 @@
+package org.wikipowdia.sunshine.snyc;
+
+import org.wikipowdia.sunshine.data.HourlyBatch;
+import org.wikipowdia.sunshine.data.WeatherBatch;
+import org.wikipowdia.sunshine.data.WeatherContract;
+
+import java.util.TimeZone;
+
+/**
+ * The parsed forecast of one location, as produced by the parse stage of
+ * {@link ForecastIngestion} and consumed by its write stage.
+ *
+ * Each day reported by the parser is appended to a column oriented {@link WeatherBatch}
+ * straight away, and each 3-hourly forecast to an {@link HourlyBatch}.  The location key of
+ * the rows is only known once the location has been written, so the rows are left without
+ * it: the write stage refers to the location it writes along with them.
+ */
+public class ForecastBatch
+        implements ForecastJsonParser.Callback, ForecastJsonParser.HourlyCallback {
+
+    private final String mLocationSetting;
+    // 16 days is the most the daily forecast API returns.
+    private final WeatherBatch mWeatherBatch = new WeatherBatch(16);
+    // 5 days of 3-hourly forecasts is all the API returns.
+    private HourlyBatch mHourlyBatch = new HourlyBatch(40);
+    // Looked up once per location: TimeZone.getDefault() returns a new copy on every call.
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+
+    private String mCityName;
+    private double mCityLatitude;
+    private double mCityLongitude;
+
+    private double mTodayHigh;
+    private double mTodayLow;
+    private String mTodayDescription;
+    private int mTodayWeatherId;
+
+    public ForecastBatch(String locationSetting) {
+        mLocationSetting = locationSetting;
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon) {
+        mCityName = cityName;
+        mCityLatitude = lat;
+        mCityLongitude = lon;
+    }
+
+    @Override
+    public void onDay(int index, ForecastJsonParser.Day day) {
+        mWeatherBatch.add(0,
+                WeatherContract.getDay(day.dateTime * 1000L, mTimeZone),
+                day.description,
+                day.weatherId,
+                day.low,
+                day.high,
+                day.humidity,
+                day.pressure,
+                day.windSpeed,
+                day.windDirection);
+
+        // The first weather item is going to be for today.
+        if (index == 0) {
+            mTodayHigh = day.high;
+            mTodayLow = day.low;
+            mTodayDescription = day.description;
+            mTodayWeatherId = day.weatherId;
+        }
+    }
+
+    @Override
+    public void onHour(int index, ForecastJsonParser.Hour hour) {
+        mHourlyBatch.add(0,
+                WeatherContract.HourlyEntry.getHour(hour.dateTime * 1000L),
+                hour.description,
+                hour.weatherId,
+                hour.temperature,
+                hour.humidity,
+                hour.pressure,
+                hour.windSpeed,
+                hour.windDirection);
+    }
+
+    /**
+     * Drops the hourly forecasts reported so far, e.g. when their response failed half way.
+     */
+    public void clearHours() {
+        mHourlyBatch = new HourlyBatch(40);
+    }
+
+    /**
+     * @return true if there is nothing worth writing: either the response had no days, or the
+     * API didn't recognize the location.
+     */
+    public boolean isEmpty() {
+        return mWeatherBatch.size() == 0 || mCityName == null;
+    }
+
+    public int size() {
+        return mWeatherBatch.size();
+    }
+
+    public WeatherBatch getWeatherBatch() {
+        return mWeatherBatch;
+    }
+
+    public HourlyBatch getHourlyBatch() {
+        return mHourlyBatch;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public String getCityName() {
+        return mCityName;
+    }
+
+    public double getCityLatitude() {
+        return mCityLatitude;
+    }
+
+    public double getCityLongitude() {
+        return mCityLongitude;
+    }
+
+    public double getTodayHigh() {
+        return mTodayHigh;
+    }
+
+    public double getTodayLow() {
+        return mTodayLow;
+    }
+
+    public String getTodayDescription() {
+        return mTodayDescription;
+    }
+
+    public int getTodayWeatherId() {
+        return mTodayWeatherId;
+    }
+}
@@ -0,0 +1,544 @@
+package org.wikipowdia.sunshine.snyc;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SyncResult;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.wikipowdia.sunshine.data.LocationForecasts;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The fetch -> parse -> write path shared by {@link SunshineSyncAdapter} and
+ * {@link org.wikipowdia.sunshine.FetchWeatherTask}.
+ *
+ * Each stage is pluggable, so the engine can be pointed at another source, parser or store
+ * without the callers noticing.  {@link #create(Context)} wires up the production stages:
+ * OpenWeatherMap over HTTP, the streaming {@link ForecastJsonParser} and the
+ * {@link org.wikipowdia.sunshine.data.WeatherProvider}.
+ *
+ * Along with the daily forecast, the engine can ingest the 3-hourly forecast of each location
+ * through a second fetcher.  Both go through the same parse and write stages, in the same
+ * sync.
+ */
+public class ForecastIngestion {
+
+    private static final String LOG_TAG = ForecastIngestion.class.getSimpleName();
+
+    /**
+     * An open forecast response.  Closing it releases the underlying connection.
+     */
+    public interface Source extends Closeable {
+        Reader getReader();
+
+        /**
+         * Called once the response has been parsed and written.
+         */
+        void onWritten();
+    }
+
+    /**
+     * Fetch stage: opens the forecast for a location.
+     */
+    public interface Fetcher {
+        /**
+         * @param conditional whether the fetcher may skip a forecast that hasn't changed since
+         *                    it was last written.  Callers should only allow this when the
+         *                    previously written forecast is still in the store.
+         * @return the response, or null if there's nothing to read.
+         */
+        Source fetch(String locationSetting, boolean conditional) throws IOException;
+    }
+
+    /**
+     * Parse stage: reports the contents of a response to the batch.
+     */
+    public interface Parser {
+        void parse(Reader in, ForecastJsonParser.Callback callback) throws IOException;
+
+        void parseHourly(Reader in, ForecastJsonParser.HourlyCallback callback)
+                throws IOException;
+    }
+
+    /**
+     * Write stage: stores parsed, non-empty batches.  All the batches handed over in one call
+     * should be committed together.
+     */
+    public interface Writer {
+        /**
+         * @throws IOException if the batches couldn't be stored.  None of them is then.
+         */
+        void write(List<ForecastBatch> batches) throws IOException;
+    }
+
+    // Upper bound on the number of forecasts downloaded at the same time by ingestAll.
+    // Enough to overlap the round trips without flooding a slow mobile connection.
+    private static final int MAX_PARALLEL_FETCHES = 3;
+
+    private final Fetcher mFetcher;
+    private final Fetcher mHourlyFetcher;
+    private final Parser mParser;
+    private final Writer mWriter;
+
+    /**
+     * Creates an engine ingesting the daily forecast only.
+     */
+    public ForecastIngestion(Fetcher fetcher, Parser parser, Writer writer) {
+        this(fetcher, null, parser, writer);
+    }
+
+    /**
+     * @param hourlyFetcher the fetcher of the 3-hourly forecast, or null to ingest the daily
+     *                      forecast only.
+     */
+    public ForecastIngestion(Fetcher fetcher, Fetcher hourlyFetcher, Parser parser,
+                             Writer writer) {
+        mFetcher = fetcher;
+        mHourlyFetcher = hourlyFetcher;
+        mParser = parser;
+        mWriter = writer;
+    }
+
+    /**
+     * @return an engine fetching from OpenWeatherMap and writing to the weather provider.
+     */
+    public static ForecastIngestion create(Context context) {
+        return new ForecastIngestion(new HttpFetcher(new ForecastValidators(context)),
+                HttpFetcher.hourly(), new StreamingParser(),
+                new ProviderWriter(context.getContentResolver()));
+    }
+
+    /**
+     * Runs the whole pipeline for one location, always fetching the full forecast.
+     *
+     * @see #ingest(String, boolean)
+     */
+    public ForecastBatch ingest(String locationSetting) throws IOException {
+        return ingest(locationSetting, false);
+    }
+
+    /**
+     * Runs the whole pipeline for one location.
+     *
+     * @param conditional whether an unchanged forecast may be skipped, see
+     *                    {@link Fetcher#fetch(String, boolean)}.
+     * @return the batch that was written, or null if there was nothing to write, including
+     * when the forecast hasn't changed.
+     * @throws IOException if the forecast couldn't be fetched, parsed or stored.
+     */
+    public ForecastBatch ingest(String locationSetting, boolean conditional)
+            throws IOException {
+        Fetched fetched = fetchAndParse(locationSetting, conditional);
+        if (fetched == null) {
+            return null;
+        }
+        write(Collections.singletonList(fetched));
+        return fetched.mBatch;
+    }
+
+    /**
+     * Runs the pipeline for several locations at once.  The forecasts are fetched and parsed
+     * in parallel, on at most {@link #MAX_PARALLEL_FETCHES} threads, and everything that was
+     * parsed is handed to the write stage in a single call.  A location that fails to fetch,
+     * parse or store is logged, counted in {@code syncResult} and left out, it doesn't stop
+     * the others.
+     *
+     * @param conditionalLocations the locations for which an unchanged forecast may be
+     *                             skipped, see {@link Fetcher#fetch(String, boolean)}.
+     * @return the batches that were written.
+     */
+    public List<ForecastBatch> ingestAll(List<String> locationSettings,
+                                         Collection<String> conditionalLocations,
+                                         SyncResult syncResult) {
+        int threads = Math.min(MAX_PARALLEL_FETCHES, locationSettings.size());
+        if (threads == 0) {
+            return Collections.emptyList();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Fetched>> futures = new ArrayList<Future<Fetched>>(locationSettings.size());
+            for (final String locationSetting : locationSettings) {
+                final boolean conditional = conditionalLocations.contains(locationSetting);
+                futures.add(pool.submit(new Callable<Fetched>() {
+                    @Override
+                    public Fetched call() throws IOException {
+                        return fetchAndParse(locationSetting, conditional);
+                    }
+                }));
+            }
+
+            List<Fetched> fetched = new ArrayList<Fetched>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    Fetched result = futures.get(i).get();
+                    if (result != null) {
+                        fetched.add(result);
+                    }
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching " + locationSettings.get(i), e.getCause());
+                    if (e.getCause() instanceof IOException) {
+                        syncResult.stats.numIoExceptions++;
+                    } else {
+                        syncResult.stats.numParseExceptions++;
+                    }
+                }
+            }
+
+            List<Fetched> written = fetched;
+            try {
+                write(fetched);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error writing " + fetched.size() + " locations", e);
+                syncResult.stats.numIoExceptions++;
+                if (fetched.size() > 1) {
+                    // The failure may come from a single location: store the others on their
+                    // own.
+                    written = writeEach(fetched, syncResult);
+                } else {
+                    syncResult.stats.numSkippedEntries++;
+                    written = Collections.emptyList();
+                }
+            }
+
+            List<ForecastBatch> batches = new ArrayList<ForecastBatch>(written.size());
+            for (Fetched result : written) {
+                batches.add(result.mBatch);
+            }
+            return batches;
+        } catch (InterruptedException e) {
+            // The sync was cancelled.  Nothing has been written yet.
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A parsed batch, along with the response it was parsed from.
+     */
+    private static class Fetched {
+        final ForecastBatch mBatch;
+        final Source mSource;
+
+        Fetched(ForecastBatch batch, Source source) {
+            mBatch = batch;
+            mSource = source;
+        }
+    }
+
+    /**
+     * Runs the fetch and parse stages for one location.  The response is closed before
+     * returning, so no connection is held while the batch waits to be written.
+     *
+     * @return the parsed batch, or null if there is nothing to write.
+     */
+    private Fetched fetchAndParse(String locationSetting, boolean conditional)
+            throws IOException {
+        long start = SystemClock.elapsedRealtime();
+
+        Source source = mFetcher.fetch(locationSetting, conditional);
+        if (source == null) {
+            Log.d(LOG_TAG, "Nothing new for " + locationSetting + " after " +
+                    (SystemClock.elapsedRealtime() - start) + "ms");
+            return null;
+        }
+
+        ForecastBatch batch = new ForecastBatch(locationSetting);
+        try {
+            mParser.parse(source.getReader(), batch);
+        } finally {
+            try {
+                source.close();
+            } catch (final IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+
+        // The hourly forecast comes from the same model run as the daily one, so it is only
+        // fetched when the daily forecast changed.
+        if (mHourlyFetcher != null && !batch.isEmpty()) {
+            fetchHourly(locationSetting, batch);
+        }
+
+        Log.d(LOG_TAG, "Parsed " + batch.size() + " days and " +
+                batch.getHourlyBatch().size() + " hours for " + locationSetting + " in " +
+                (SystemClock.elapsedRealtime() - start) + "ms");
+        return batch.isEmpty() ? null : new Fetched(batch, source);
+    }
+
+    /**
+     * Adds the 3-hourly forecast of the location to the batch.  It comes on top of the daily
+     * forecast: when it can't be fetched, the daily forecast is written without it.
+     */
+    private void fetchHourly(String locationSetting, ForecastBatch batch) {
+        try {
+            Source source = mHourlyFetcher.fetch(locationSetting, false);
+            if (source == null) {
+                return;
+            }
+            try {
+                mParser.parseHourly(source.getReader(), batch);
+            } finally {
+                try {
+                    source.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching the hourly forecast of " + locationSetting, e);
+            batch.clearHours();
+        }
+    }
+
+    /**
+     * Runs the write stage for each batch on its own.
+     *
+     * @return the batches that were written.
+     */
+    private List<Fetched> writeEach(List<Fetched> fetched, SyncResult syncResult) {
+        List<Fetched> written = new ArrayList<Fetched>(fetched.size());
+        for (Fetched result : fetched) {
+            try {
+                write(Collections.singletonList(result));
+                written.add(result);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error writing " + result.mBatch.getLocationSetting(), e);
+                syncResult.stats.numSkippedEntries++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Runs the write stage for the batches, then lets their responses know they were written.
+     * Nothing is let known if the write fails, so the next fetch isn't skipped as unchanged.
+     */
+    private void write(List<Fetched> fetched) throws IOException {
+        if (fetched.isEmpty()) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtime();
+
+        List<ForecastBatch> batches = new ArrayList<ForecastBatch>(fetched.size());
+        for (Fetched result : fetched) {
+            batches.add(result.mBatch);
+        }
+        mWriter.write(batches);
+
+        for (Fetched result : fetched) {
+            result.mSource.onWritten();
+        }
+
+        Log.d(LOG_TAG, "Wrote " + batches.size() + " locations in " +
+                (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    /**
+     * Fetches a forecast from OpenWeatherMap: the daily one, or the 3-hourly one for the
+     * fetchers created by {@link #hourly()}.  Conditional fetches send the validators of the
+     * last written forecast, and a 304 Not Modified answer is reported as nothing to read, so
+     * neither the parse nor the write stage runs.
+     */
+    public static class HttpFetcher implements Fetcher {
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        private static final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        private static final String HOURLY_FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast?";
+        private static final String QUERY_PARAM = "q";
+        private static final String FORMAT_PARAM = "mode";
+        private static final String UNITS_PARAM = "units";
+        private static final String DAYS_PARAM = "cnt";
+
+        private static final String FORMAT = "json";
+        private static final String UNITS = "metric";
+        private static final int NUM_DAYS = 14;
+        // 5 days of forecasts, 3 hours apart.
+        private static final int NUM_HOURS = 40;
+
+        private final String mBaseUrl;
+        private final int mCount;
+        private final ForecastValidators mValidators;
+
+        public HttpFetcher(ForecastValidators validators) {
+            this(FORECAST_BASE_URL, NUM_DAYS, validators);
+        }
+
+        private HttpFetcher(String baseUrl, int count, ForecastValidators validators) {
+            mBaseUrl = baseUrl;
+            mCount = count;
+            mValidators = validators;
+        }
+
+        /**
+         * @return a fetcher of the 3-hourly forecast.  It keeps no validators, so its
+         * fetches are never conditional.
+         */
+        public static HttpFetcher hourly() {
+            return new HttpFetcher(HOURLY_FORECAST_BASE_URL, NUM_HOURS, null);
+        }
+
+        @Override
+        public Source fetch(final String locationSetting, boolean conditional)
+                throws IOException {
+            Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, locationSetting)
+                    .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                    .appendQueryParameter(UNITS_PARAM, UNITS)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(mCount))
+                    .build();
+
+            URL url = new URL(builtUri.toString());
+
+            // Create the request to OpenWeatherMap, and open the connection
+            final HttpURLConnection urlConnection = openConnection(url);
+            urlConnection.setRequestMethod("GET");
+            if (conditional && mValidators != null) {
+                String eTag = mValidators.getETag(locationSetting);
+                String lastModified = mValidators.getLastModified(locationSetting);
+                if (eTag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", eTag);
+                }
+                if (lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+
+            InputStream inputStream;
+            try {
+                urlConnection.connect();
+                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    // What we have stored is still current.
+                    urlConnection.disconnect();
+                    return null;
+                }
+                inputStream = urlConnection.getInputStream();
+            } catch (IOException e) {
+                urlConnection.disconnect();
+                throw e;
+            }
+            if (inputStream == null) {
+                // Nothing to do.
+                urlConnection.disconnect();
+                return null;
+            }
+
+            final String eTag = urlConnection.getHeaderField("ETag");
+            final String lastModified = urlConnection.getHeaderField("Last-Modified");
+
+            final BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            return new Source() {
+                @Override
+                public Reader getReader() {
+                    return reader;
+                }
+
+                @Override
+                public void onWritten() {
+                    if (mValidators != null) {
+                        mValidators.save(locationSetting, eTag, lastModified);
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        reader.close();
+                    } finally {
+                        urlConnection.disconnect();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Opens the connection of a request.  Tests override it to answer without a network.
+         */
+        protected HttpURLConnection openConnection(URL url) throws IOException {
+            return (HttpURLConnection) url.openConnection();
+        }
+    }
+
+    /**
+     * Parses the response as it comes off the wire, see {@link ForecastJsonParser}.
+     */
+    public static class StreamingParser implements Parser {
+        @Override
+        public void parse(Reader in, ForecastJsonParser.Callback callback) throws IOException {
+            ForecastJsonParser.parse(in, callback);
+        }
+
+        @Override
+        public void parseHourly(Reader in, ForecastJsonParser.HourlyCallback callback)
+                throws IOException {
+            ForecastJsonParser.parseHourly(in, callback);
+        }
+    }
+
+    /**
+     * Writes batches through the weather content provider.
+     */
+    public static class ProviderWriter implements Writer {
+        private final ContentResolver mResolver;
+
+        public ProviderWriter(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        /**
+         * Stores the locations and their forecasts with one {@link LocationForecasts#store}
+         * call, so a whole sync is committed in a single provider transaction.  The weather
+         * and hourly rows of every location cross over to the provider as two column
+         * oriented batches.
+         */
+        @Override
+        public void write(List<ForecastBatch> batches) throws IOException {
+            LocationForecasts forecasts = new LocationForecasts();
+            for (ForecastBatch batch : batches) {
+                Log.v(LOG_TAG, "inserting " + batch.getCityName() + ", with coord: " +
+                        batch.getCityLatitude() + ", " + batch.getCityLongitude());
+                forecasts.add(batch.getLocationSetting(), batch.getCityName(),
+                        batch.getCityLatitude(), batch.getCityLongitude(),
+                        batch.getWeatherBatch(), batch.getHourlyBatch());
+            }
+
+            try {
+                forecasts.store(mResolver);
+            } catch (RemoteException e) {
+                throw new IOException("Error writing forecasts", e);
+            } catch (OperationApplicationException e) {
+                throw new IOException("Error writing forecasts", e);
+            } catch (SQLException e) {
+                throw new IOException("Error writing forecasts", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package org.wikipowdia.sunshine.snyc;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming parser for the OpenWeatherMap daily and 3-hourly forecast responses.
+ *
+ * Instead of reading the whole response into a String and building a {@link JSONObject} tree
+ * out of it, the response is consumed token by token and every element of the "list" array is
+ * handed to the {@link Callback} as soon as it has been read.  The same {@link Day} instance is
+ * reused for every element, so the parser itself doesn't allocate per forecast day.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_DATETIME = "dt";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // In the 3-hourly forecast, the temperature, pressure and humidity are children of the
+    // "main" object, and the wind speed and direction children of the "wind" object.
+    private static final String OWM_HOURLY_MAIN = "main";
+    private static final String OWM_HOURLY_TEMPERATURE = "temp";
+    private static final String OWM_HOURLY_WIND = "wind";
+
+    /**
+     * Receives the city of a forecast.  Note that the API doesn't guarantee the "city" object
+     * comes before the "list" array, so implementations must not rely on {@link #onCity}
+     * having been called before the elements of the list are reported.
+     */
+    public interface CityCallback {
+        void onCity(String cityName, double lat, double lon);
+    }
+
+    /**
+     * Receives the parsed pieces of the daily forecast.
+     */
+    public interface Callback extends CityCallback {
+        /**
+         * @param index position of the day in the "list" array, 0 being today.
+         * @param day the values of the day.  The instance is reused for the next element, so
+         *            copy what you need before returning.
+         */
+        void onDay(int index, Day day);
+    }
+
+    /**
+     * Receives the parsed pieces of the 3-hourly forecast.
+     */
+    public interface HourlyCallback extends CityCallback {
+        /**
+         * @param index position of the forecast in the "list" array, 0 being the nearest.
+         * @param hour the values of the forecast.  The instance is reused for the next
+         *             element, so copy what you need before returning.
+         */
+        void onHour(int index, Hour hour);
+    }
+
+    /**
+     * Mutable holder for the values of one element of the "list" array.
+     */
+    public static final class Day {
+        // The date/time is returned as a long, in seconds since the epoch.
+        public long dateTime;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+
+        // Temperatures are in a child object called "temp".  Try not to name variables
+        // "temp" when working with temperature.  It confuses everybody.
+        public double high;
+        public double low;
+
+        public String description;
+        public int weatherId;
+
+        void reset() {
+            dateTime = 0;
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    /**
+     * Mutable holder for the values of one element of the 3-hourly "list" array.
+     */
+    public static final class Hour {
+        // In seconds since the epoch, like Day.dateTime.
+        public long dateTime;
+        public double temperature;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+
+        public String description;
+        public int weatherId;
+
+        void reset() {
+            dateTime = 0;
+            temperature = 0;
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    /**
+     * Parses a forecast response, reporting the city and each day to the callback.
+     *
+     * @param in the response body.  The caller is responsible for closing it.
+     * @param callback the receiver of the parsed values
+     * @throws IOException if the response couldn't be read or isn't a valid forecast.
+     */
+    public static void parse(Reader in, Callback callback) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            parseStreaming(in, callback);
+        } else {
+            parseTree(in, callback);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void parseStreaming(Reader in, Callback callback) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        Day day = new Day();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_CITY.equals(name)) {
+                    readCity(reader, callback);
+                } else if (OWM_LIST.equals(name)) {
+                    int index = 0;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        day.reset();
+                        readDay(reader, day);
+                        callback.onDay(index++, day);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected token types this way.
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses a 3-hourly forecast response, reporting the city and each forecast to the
+     * callback.
+     *
+     * @param in the response body.  The caller is responsible for closing it.
+     * @param callback the receiver of the parsed values
+     * @throws IOException if the response couldn't be read or isn't a valid forecast.
+     */
+    public static void parseHourly(Reader in, HourlyCallback callback) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            parseHourlyStreaming(in, callback);
+        } else {
+            parseHourlyTree(in, callback);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void parseHourlyStreaming(Reader in, HourlyCallback callback)
+            throws IOException {
+        JsonReader reader = new JsonReader(in);
+        Hour hour = new Hour();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_CITY.equals(name)) {
+                    readCity(reader, callback);
+                } else if (OWM_LIST.equals(name)) {
+                    int index = 0;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        hour.reset();
+                        readHour(reader, hour);
+                        callback.onHour(index++, hour);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected token types this way.
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, CityCallback callback) throws IOException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        callback.onCity(cityName, lat, lon);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, Day day) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                day.dateTime = reader.nextLong();
+            } else if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = (int) reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        day.high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(tempName)) {
+                        day.low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            day.description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            day.weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readHour(JsonReader reader, Hour hour) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                hour.dateTime = reader.nextLong();
+            } else if (OWM_HOURLY_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_HOURLY_TEMPERATURE.equals(mainName)) {
+                        hour.temperature = reader.nextDouble();
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hour.pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hour.humidity = (int) reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_HOURLY_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hour.windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hour.windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Same as in the daily forecast: only the first element is used.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            hour.description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            hour.weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Fallback for platforms without {@link JsonReader} (pre-Honeycomb): reads the whole
+     * response and walks the {@link JSONObject} tree, reporting the same events.
+     */
+    private static void parseTree(Reader in, Callback callback) throws IOException {
+        try {
+            JSONObject forecastJson = readTree(in, callback);
+
+            JSONArray weatherArray = forecastJson.optJSONArray(OWM_LIST);
+            if (weatherArray == null) {
+                return;
+            }
+
+            Day day = new Day();
+            for (int i = 0; i < weatherArray.length(); i++) {
+                JSONObject dayForecast = weatherArray.getJSONObject(i);
+                day.reset();
+                day.dateTime = dayForecast.getLong(OWM_DATETIME);
+                day.pressure = dayForecast.getDouble(OWM_PRESSURE);
+                day.humidity = dayForecast.getInt(OWM_HUMIDITY);
+                day.windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+                day.windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+                JSONObject weatherObject =
+                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+                day.description = weatherObject.getString(OWM_DESCRIPTION);
+                day.weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+                day.high = temperatureObject.getDouble(OWM_MAX);
+                day.low = temperatureObject.getDouble(OWM_MIN);
+
+                callback.onDay(i, day);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Fallback of {@link #parseHourly} for platforms without {@link JsonReader}.
+     */
+    private static void parseHourlyTree(Reader in, HourlyCallback callback) throws IOException {
+        try {
+            JSONObject forecastJson = readTree(in, callback);
+
+            JSONArray hourArray = forecastJson.optJSONArray(OWM_LIST);
+            if (hourArray == null) {
+                return;
+            }
+
+            Hour hour = new Hour();
+            for (int i = 0; i < hourArray.length(); i++) {
+                JSONObject hourForecast = hourArray.getJSONObject(i);
+                hour.reset();
+                hour.dateTime = hourForecast.getLong(OWM_DATETIME);
+
+                JSONObject mainObject = hourForecast.getJSONObject(OWM_HOURLY_MAIN);
+                hour.temperature = mainObject.getDouble(OWM_HOURLY_TEMPERATURE);
+                hour.pressure = mainObject.getDouble(OWM_PRESSURE);
+                hour.humidity = mainObject.getInt(OWM_HUMIDITY);
+
+                JSONObject windObject = hourForecast.getJSONObject(OWM_HOURLY_WIND);
+                hour.windSpeed = windObject.getDouble(OWM_WINDSPEED);
+                hour.windDirection = windObject.getDouble(OWM_WIND_DIRECTION);
+
+                JSONObject weatherObject =
+                        hourForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+                hour.description = weatherObject.getString(OWM_DESCRIPTION);
+                hour.weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+                callback.onHour(i, hour);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the whole response into a {@link JSONObject} tree, and reports its city.
+     */
+    private static JSONObject readTree(Reader in, CityCallback callback)
+            throws IOException, JSONException {
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+
+        JSONObject cityJson = forecastJson.optJSONObject(OWM_CITY);
+        if (cityJson != null) {
+            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+            callback.onCity(cityJson.getString(OWM_CITY_NAME),
+                    cityCoord.getDouble(OWM_LATITUDE),
+                    cityCoord.getDouble(OWM_LONGITUDE));
+        }
+        return forecastJson;
+    }
+}
@@ -0,0 +1,50 @@
+package org.wikipowdia.sunshine.snyc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persists the HTTP cache validators (ETag and Last-Modified) of the last forecast stored for
+ * each location, so the next fetch can be made conditional and answered with a
+ * 304 Not Modified when the forecast hasn't changed.
+ */
+public class ForecastValidators {
+
+    private static final String PREFS_NAME = "forecast_validators";
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+
+    private final SharedPreferences mPrefs;
+
+    public ForecastValidators(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public String getETag(String locationSetting) {
+        return mPrefs.getString(KEY_ETAG + locationSetting, null);
+    }
+
+    public String getLastModified(String locationSetting) {
+        return mPrefs.getString(KEY_LAST_MODIFIED + locationSetting, null);
+    }
+
+    /**
+     * Stores the validators of a response.  Should only be called once the response has been
+     * written, otherwise a failed write would be masked by the following 304s.
+     * Null values remove the corresponding validator.
+     */
+    public void save(String locationSetting, String eTag, String lastModified) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, KEY_ETAG + locationSetting, eTag);
+        putOrRemove(editor, KEY_LAST_MODIFIED + locationSetting, lastModified);
+        editor.commit();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+}
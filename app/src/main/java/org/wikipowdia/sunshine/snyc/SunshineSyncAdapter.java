@@ -7,8 +7,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SyncRequest;
 import android.content.Intent;
@@ -25,23 +23,19 @@ import android.util.Log;
 
 import org.wikipowdia.sunshine.MainActivity;
 import org.wikipowdia.sunshine.R;
+import org.wikipowdia.sunshine.SettingsSnapshot;
 import org.wikipowdia.sunshine.Utility;
+import org.wikipowdia.sunshine.data.ForecastSnapshot;
+import org.wikipowdia.sunshine.data.WeatherBatch;
 import org.wikipowdia.sunshine.data.WeatherContract;
-import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
 import org.wikipowdia.sunshine.data.WeatherContract.LocationEntry;
+import org.wikipowdia.sunshine.data.WeatherContract.WeatherEntry;
+import org.wikipowdia.sunshine.data.WeatherRetention;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Vector;
+import java.util.List;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
@@ -53,12 +47,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
 
+    // Sync extra: whether to refresh every stored location rather than only the preferred
+    // one.  Defaults to true for scheduled syncs and false for manual ones.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sync_all_locations";
+
+    // The columns of the stored forecast the snapshot and the notification are made of.
+    private static final String[] STORED_FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DAY,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+
+    // These indices are tied to STORED_FORECAST_COLUMNS.
+    private static final int COL_DAY = 0;
+    private static final int COL_SHORT_DESC = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+
     private final Context mContext;
+    private final ForecastIngestion mIngestion;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
         Log.d(LOG_TAG, "Creating SyncAdapter");
         mContext = context;
+        mIngestion = ForecastIngestion.create(context);
     }
 
     @Override
@@ -68,222 +84,156 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // Getting the zipcode to send to the API
         String locationQuery = Utility.getPreferredLocation(mContext);
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // Scheduled syncs refresh every location the user has used, so switching back to one
+        // of them is served straight from the database.  Manual syncs are about the preferred
+        // location only, unless they ask otherwise.
+        boolean allLocations = bundle.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS,
+                !bundle.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false));
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        List<String> locations = allLocations ?
+                getTrackedLocations(locationQuery) : Collections.singletonList(locationQuery);
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        List<String> conditionalLocations = getConditionalLocations(mContext, locations);
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
+        // Locations whose forecast didn't change since the last sync, came back empty or
+        // failed to download or store are left out of the result.  Nothing was inserted for
+        // them, and the failures are counted in syncResult.
+        List<ForecastBatch> batches =
+                mIngestion.ingestAll(locations, conditionalLocations, syncResult);
 
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+        boolean preferredLocationSynced = false;
+        for (ForecastBatch batch : batches) {
+            if (batch.getLocationSetting().equals(locationQuery)) {
+                preferredLocationSynced = true;
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attemping
-            // to parse it.
-            return;
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+                // Saved for the next cold start, which paints it before querying the provider.
+                ForecastSnapshot.write(mContext, locationQuery, batch.getWeatherBatch());
+
+                // The first weather item is going to be for today.  Use weather data to
+                // populate a notification to the user, so they know what kind of world
+                // they're walking into when they walk out the front door.
+                notifyWeather(batch.getTodayHigh(), batch.getTodayLow(),
+                        batch.getTodayDescription(), batch.getTodayWeatherId());
             }
         }
+        if (!preferredLocationSynced) {
+            // The forecast didn't change since the last sync, or couldn't be fetched: the
+            // stored one still stands, and is as good a start to the day.
+            refreshFromStoredForecast(locationQuery);
+        }
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_DATETIME = "dt";
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        // Drop the days that went by, so the database doesn't grow with every sync.
+        int purged = WeatherRetention.purge(mContext.getContentResolver(),
+                Utility.getHistoryDays(mContext));
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        Log.d(LOG_TAG, "Sync Complete. " + batches.size() + " of " + locations.size() +
+                " locations updated, " + purged + " past rows deleted");
+    }
 
+    /**
+     * @return the preferred location followed by every other location stored in the database.
+     */
+    private List<String> getTrackedLocations(String preferredLocation) {
+        List<String> locations = new ArrayList<String>();
+        locations.add(preferredLocation);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor == null) {
+            return locations;
+        }
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationQuery, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // The date/time is returned as a long.  We need to convert that
-                // into something human-readable, since most people won't read "1400356800" as
-                // "this saturday".
-                dateTime = dayForecast.getLong(OWM_DATETIME);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherEntry.COLUMN_DATETEXT,
-                        WeatherContract.getDbDateString(new Date(dateTime * 1000L)));
-                weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-
-                // The first weather item is going to be for today.  Use weather data to populate a
-                // notification to the user, so they know what kind of world they're walking into
-                // when they walk out the front door.
-                if (i == 0) {
-                    notifyWeather(high, low, description, weatherId);
+            while (cursor.moveToNext()) {
+                String location = cursor.getString(0);
+                if (!preferredLocation.equals(location)) {
+                    locations.add(location);
                 }
+            }
+        } finally {
+            cursor.close();
+        }
+        return locations;
+    }
 
+    /**
+     * Only ask for changes since the last sync if that sync's forecast is still around,
+     * otherwise a 304 would leave the user looking at an empty list.
+     *
+     * @return the locations whose fetch may be conditional.
+     */
+    public static List<String> getConditionalLocations(Context context,
+                                                       List<String> locations) {
+        List<String> conditionalLocations = new ArrayList<String>(locations.size());
+        for (String location : locations) {
+            if (hasCurrentForecast(context, location)) {
+                conditionalLocations.add(location);
             }
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, cvArray);
+        }
+        return conditionalLocations;
+    }
+
+    /**
+     * @return true if forecast data from today onwards is stored for the location.
+     */
+    private static boolean hasCurrentForecast(Context context, String locationSetting) {
+        Uri weatherForLocationUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, WeatherContract.getDbDateString(new Date()));
+        Cursor cursor = context.getContentResolver().query(weatherForLocationUri,
+                new String[]{WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the snapshot and the notification from the forecast stored for the location,
+     * from today on.
+     */
+    private void refreshFromStoredForecast(String locationSetting) {
+        Date now = new Date();
+        Uri weatherForLocationUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, WeatherContract.getDbDateString(now));
+        Cursor cursor = mContext.getContentResolver().query(weatherForLocationUri,
+                STORED_FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DAY + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        WeatherBatch batch;
+        try {
+            batch = new WeatherBatch(cursor.getCount());
+            while (cursor.moveToNext()) {
+                batch.add(0, cursor.getInt(COL_DAY), cursor.getString(COL_SHORT_DESC),
+                        cursor.getInt(COL_WEATHER_ID), cursor.getDouble(COL_MIN_TEMP),
+                        cursor.getDouble(COL_MAX_TEMP), 0, 0, 0, 0);
             }
-            Log.d(LOG_TAG, "FetchWeatherTask Complete. " + cVVector.size() + " Inserted");
+        } finally {
+            cursor.close();
+        }
+        if (batch.size() == 0) {
+            return;
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
+        ForecastSnapshot.write(mContext, locationSetting, batch);
+        if (batch.getDay(0) == WeatherContract.getDay(now)) {
+            notifyWeather(batch.getMaxTemp(0), batch.getMinTemp(0), batch.getShortDesc(0),
+                    batch.getWeatherId(0));
         }
-        return;
     }
 
     private void notifyWeather(double high, double low, String description, int weatherId) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
 
         // If notifications are enabled in preferences...
-        boolean defaultForNotifications =
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default));
-        boolean notificationsEnabled =
-                prefs.getBoolean(displayNotificationsKey, defaultForNotifications);
+        boolean notificationsEnabled = SettingsSnapshot.get(context).isNotificationsEnabled();
 
         // AND it's been at least 24h since the last notification was displayed
         String lastNotificationKey = context.getString(R.string.pref_last_notification);
@@ -337,56 +287,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    private long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        Log.v(LOG_TAG, "inserting " + cityName + ", with coord: " + lat + ", " + lon);
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = mContext.getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{LocationEntry._ID},
-                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = mContext.getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
     /**
      * Helper method to have the sync adapter sync immediately
      *